@@ -0,0 +1,366 @@
+package j.algo;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes the connected components of graphs stored as edge files.
+ *
+ * An edge file is a text file with one edge per line, each line being a
+ * pair of zero-based vertex indices separated by spaces or tabs, e.g.,
+ * "3 17". Lines can be terminated by LF or CRLF, and blank lines are
+ * ignored.
+ *
+ * The file is memory-mapped and split into ranges that are parsed in
+ * parallel directly from bytes, without creating a String per line.
+ * Parsed edges are handed to the calling thread in blocks of primitive
+ * ints, where they are fed to a {@link UnionFind}. The blocks are recycled,
+ * so the memory used is independent of the file size.
+ *
+ * All methods are thread-safe.
+ * @author Lucas Tan
+ */
+public final class ConnectedComponents
+{
+    // cannot instantiate
+    private ConnectedComponents(){}
+
+    /** Max size in bytes of each split of the file. */
+    private static final long MAX_SPLIT_SIZE = 64L * 1024 * 1024;
+
+    /** Min size in bytes of each split of the file. */
+    private static final long MIN_SPLIT_SIZE = 1024L * 1024;
+
+    /** Max length of a line, including its terminator. Each split maps
+     * this many extra bytes so that its last line can be completed. */
+    private static final int MAX_LINE_LEN = 4096;
+
+    /** Max number of edges in each block. */
+    private static final int BLOCK_EDGES = 32 * 1024;
+
+    /** Number of blocks per parsing thread. */
+    private static final int BLOCKS_PER_THREAD = 3;
+
+    /** Marks the end of a split in the queue of full blocks. */
+    private static final int[] END_OF_SPLIT = new int[0];
+
+    private static final int OUT_BUF_SIZE = 64 * 1024;
+
+    /**
+     * Reads an edge file and unions the two end points of every edge.
+     * @param edgeFile The edge file.
+     * @param numVertices Total number of vertices. All vertex indices in the
+     *        file must be less than this.
+     * @param parallelism Number of threads used for parsing.
+     * @exception IOException if an I/O error occurs, a line is malformed or
+     *            a vertex index is out of bounds.
+     * @exception IllegalArgumentException if numVertices or parallelism
+     *            is non-positive.
+     */
+    public static UnionFind ofEdgeFile(File edgeFile, int numVertices,
+        int parallelism) throws IOException
+    {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must > 0");
+
+        final UnionFind uf = new UnionFind(numVertices);
+
+        final RandomAccessFile raf = new RandomAccessFile(edgeFile, "r");
+        final ExecutorService pool = Executors.newFixedThreadPool(
+            parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    final Thread t = new Thread(r, "edge-parser");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        try
+        {
+            final FileChannel ch = raf.getChannel();
+            final long fileSize = ch.size();
+            final long splitSize = Math.max(MIN_SPLIT_SIZE,
+                Math.min(MAX_SPLIT_SIZE, fileSize / (4L * parallelism)));
+            final int numSplits = (int) ((fileSize + splitSize - 1) / splitSize);
+
+            final int numBlocks = BLOCKS_PER_THREAD * parallelism;
+            final BlockingQueue<int[]> free =
+                new ArrayBlockingQueue<int[]>(numBlocks);
+            final BlockingQueue<int[]> full =
+                new ArrayBlockingQueue<int[]>(numBlocks + numSplits);
+            for (int i = 0; i < numBlocks; i++)
+                free.add(new int[1 + 2 * BLOCK_EDGES]);
+
+            final AtomicReference<Throwable> error =
+                new AtomicReference<Throwable>();
+
+            for (int i = 0; i < numSplits; i++)
+            {
+                final long start = i * splitSize;
+                final long end = Math.min(fileSize, start + splitSize);
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            if (error.get() == null)
+                            {
+                                parseSplit(ch, start, end, fileSize,
+                                    numVertices, free, full);
+                            }
+                        }
+                        catch (Throwable e)
+                        {
+                            error.compareAndSet(null, e);
+                        }
+                        finally
+                        {
+                            // never blocks since there is room reserved
+                            // for one end marker per split
+                            full.add(END_OF_SPLIT);
+                        }
+                    }
+                });
+            }
+
+            int ended = 0;
+            while (ended < numSplits)
+            {
+                final int[] block = full.take();
+                if (block == END_OF_SPLIT)
+                {
+                    ended++;
+                    continue;
+                }
+
+                final int count = block[0];
+                for (int i = 1; i < count; i += 2)
+                    uf.union(block[i], block[i + 1]);
+
+                free.add(block);
+            }
+
+            final Throwable e = error.get();
+            if (e instanceof IOException) throw (IOException) e;
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            if (e instanceof Error) throw (Error) e;
+            if (e != null) throw new IOException(e);
+
+            return uf;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+        finally
+        {
+            pool.shutdownNow();
+            raf.close();
+        }
+    }
+
+    /**
+     * Parses the lines that start within [start, end) of the file.
+     * A line that starts in the split but ends beyond it is parsed by
+     * this split, and skipped by the next.
+     */
+    private static void parseSplit(FileChannel ch, long start, long end,
+        long fileSize, int numVertices,
+        BlockingQueue<int[]> free, BlockingQueue<int[]> full)
+        throws IOException, InterruptedException
+    {
+        final long mapStart = (start > 0 ? start - 1 : 0);
+        final long mapEnd = Math.min(fileSize, end + MAX_LINE_LEN);
+        final MappedByteBuffer map =
+            ch.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+        final int limit = (int) (mapEnd - mapStart);
+        final int splitEnd = (int) (end - mapStart);
+        int pos = 0;
+
+        // Skip the partial line owned by the previous split.
+        if (start > 0)
+        {
+            while (pos < limit && map.get(pos) != '\n') pos++;
+            pos++;
+        }
+
+        int[] block = free.take();
+        int count = 1;
+
+        while (pos < splitEnd)
+        {
+            // parse the two vertex indices of the line
+            for (int k = 0; k < 2; k++)
+            {
+                int b;
+                while (pos < limit
+                    && ((b = map.get(pos)) == ' ' || b == '\t'))
+                {
+                    pos++;
+                }
+
+                if (k == 0 && pos < limit
+                    && ((b = map.get(pos)) == '\n' || b == '\r'))
+                {
+                    // blank line
+                    break;
+                }
+
+                final int numStart = pos;
+                long v = 0;
+                while (pos < limit
+                    && (b = map.get(pos) - '0') >= 0 && b <= 9)
+                {
+                    v = v * 10 + b;
+                    if (v >= numVertices)
+                    {
+                        throw new IOException("vertex out of bounds at byte "
+                            + (mapStart + numStart));
+                    }
+
+                    pos++;
+                }
+
+                if (pos == numStart)
+                {
+                    if (k == 0 && pos >= limit) break;
+
+                    throw new IOException("malformed edge at byte "
+                        + (mapStart + pos));
+                }
+
+                block[count++] = (int) v;
+            }
+
+            // the line must end after the second index
+            while (pos < limit && map.get(pos) != '\n')
+            {
+                final int b = map.get(pos);
+                if (b != ' ' && b != '\t' && b != '\r')
+                {
+                    throw new IOException("malformed edge at byte "
+                        + (mapStart + pos));
+                }
+                pos++;
+            }
+
+            if (pos >= limit && mapEnd < fileSize)
+                throw new IOException("line too long at byte " + mapEnd);
+
+            pos++;
+
+            if (count == block.length)
+            {
+                block[0] = count;
+                full.put(block);
+                block = free.take();
+                count = 1;
+            }
+        }
+
+        block[0] = count;
+        full.put(block);
+    }
+
+    /**
+     * Gets a component id for every element, numbering the components
+     * from zero in the order in which they first appear.
+     * @return An array with one component id per element.
+     */
+    public static int[] componentIds(UnionFind uf)
+    {
+        final int n = uf.size();
+        final int[] ids = new int[n];
+        final int[] rootIds = new int[n];
+        Arrays.fill(rootIds, -1);
+        int next = 0;
+
+        for (int i = 0; i < n; i++)
+        {
+            final int root = uf.find(i);
+            int id = rootIds[root];
+            if (id < 0)
+            {
+                id = next++;
+                rootIds[root] = id;
+            }
+
+            ids[i] = id;
+        }
+
+        return ids;
+    }
+
+    /**
+     * Writes the component id of every element as a decimal number on its
+     * own line, in element order. The ids are as given by
+     * {@link #componentIds(UnionFind)}. The output stream is not closed.
+     * @exception IOException if an I/O error occurs.
+     */
+    public static void writeComponentIds(UnionFind uf, OutputStream out)
+        throws IOException
+    {
+        final int[] ids = componentIds(uf);
+        final byte[] buf = new byte[OUT_BUF_SIZE];
+        int count = 0;
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            // an int has at most 10 digits, plus a line feed
+            if (count + 11 > buf.length)
+            {
+                out.write(buf, 0, count);
+                count = 0;
+            }
+
+            int v = ids[i];
+            int ndigit = 1;
+            for (int t = v; t >= 10; t /= 10) ndigit++;
+
+            for (int idx = count + ndigit - 1; idx >= count; idx--)
+            {
+                buf[idx] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+
+            count += ndigit;
+            buf[count++] = '\n';
+        }
+
+        out.write(buf, 0, count);
+        out.flush();
+    }
+
+    /**
+     * Computes the connected components of an edge file and writes the
+     * component id column to an output file.
+     * @see #ofEdgeFile(File, int, int)
+     * @see #writeComponentIds(UnionFind, OutputStream)
+     * @return The number of connected components.
+     */
+    public static int run(File edgeFile, int numVertices, int parallelism,
+        File outFile) throws IOException
+    {
+        final UnionFind uf = ofEdgeFile(edgeFile, numVertices, parallelism);
+        final OutputStream out = new FileOutputStream(outFile);
+        try
+        {
+            writeComponentIds(uf, out);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return uf.getDistinctCount();
+    }
+}
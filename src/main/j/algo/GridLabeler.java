@@ -0,0 +1,397 @@
+package j.algo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Connected-component labeling of 2D grids stored in row-major order.
+ *
+ * For a byte grid, every non-zero pixel is foreground and two neighbouring
+ * foreground pixels are connected. For an int grid, two neighbouring
+ * pixels are connected if they have the same non-zero value, so every
+ * class of a class map is labeled separately. Zero pixels are background.
+ * Neighbours are either the 4 pixels sharing an edge, or the 8 pixels
+ * sharing an edge or a corner.
+ *
+ * The labeler runs a union find directly on the row-major index space,
+ * using the output label array as the parent array, where every root is
+ * the first pixel of its component in row-major order. The grid is split
+ * into horizontal strips that are labeled in parallel, then the unions
+ * across strip borders are performed, and finally the labels are made
+ * consecutive in parallel.
+ *
+ * All methods are thread-safe.
+ * @author Lucas Tan
+ */
+public final class GridLabeler
+{
+    // cannot instantiate
+    private GridLabeler(){}
+
+    /** Min number of pixels in each strip. */
+    private static final int MIN_STRIP_PIXELS = 64 * 1024;
+
+    /** Number of strips per thread, for load balancing. */
+    private static final int STRIPS_PER_THREAD = 4;
+
+    /** Marks a background pixel while labeling. Parent indices are
+     * non-negative and final labels are stored negated while labeling,
+     * so this cannot be confused with either. */
+    private static final int BG = Integer.MIN_VALUE;
+
+    /**
+     * Labels the connected components of non-zero pixels of a byte grid
+     * on the common fork-join pool.
+     * @see #label(byte[], int, int, boolean, int[], ForkJoinPool)
+     */
+    public static int label(byte[] grid, int width, int height,
+        boolean eightConnected, int[] labels)
+    {
+        return label(grid, width, height, eightConnected, labels,
+            ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Labels the connected components of non-zero pixels of a byte grid.
+     * @param grid Pixels in row-major order.
+     * @param eightConnected true for 8-connectivity; false for
+     *        4-connectivity.
+     * @param labels Receives the label of every pixel: 0 for background,
+     *        and 1 to the number of components for foreground, numbered in
+     *        row-major order of the first pixel of each component.
+     * @param pool Pool on which the strips are labeled.
+     * @return The number of components.
+     * @exception IllegalArgumentException if width or height is
+     *            non-positive, width * height overflows an int, or an array
+     *            is shorter than width * height.
+     * @exception NullPointerException if an argument is null.
+     */
+    public static int label(byte[] grid, int width, int height,
+        boolean eightConnected, int[] labels, ForkJoinPool pool)
+    {
+        checkSize(grid.length, width, height, labels);
+        return label(new BytePixels(grid), width, height, eightConnected,
+            labels, pool);
+    }
+
+    /**
+     * Labels the connected components of equal non-zero pixels of an int
+     * grid on the common fork-join pool.
+     * @see #label(int[], int, int, boolean, int[], ForkJoinPool)
+     */
+    public static int label(int[] grid, int width, int height,
+        boolean eightConnected, int[] labels)
+    {
+        return label(grid, width, height, eightConnected, labels,
+            ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Labels the connected components of equal non-zero pixels of an int
+     * grid.
+     * @see #label(byte[], int, int, boolean, int[], ForkJoinPool)
+     */
+    public static int label(int[] grid, int width, int height,
+        boolean eightConnected, int[] labels, ForkJoinPool pool)
+    {
+        checkSize(grid.length, width, height, labels);
+        return label(new IntPixels(grid), width, height, eightConnected,
+            labels, pool);
+    }
+
+    private static void checkSize(int gridLen, int width, int height,
+        int[] labels)
+    {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("width and height must > 0");
+
+        if ((long) width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("grid too large");
+
+        if ((long) width * height > gridLen)
+            throw new IllegalArgumentException("grid too small");
+
+        if ((long) width * height > labels.length)
+            throw new IllegalArgumentException("labels too small");
+    }
+
+    private static int label(Pixels px, int width, int height,
+        boolean eight, int[] labels, ForkJoinPool pool)
+    {
+        final int maxStrips = Math.max(1,
+            (int) Math.min(height, (long) width * height / MIN_STRIP_PIXELS));
+        final int numStrips = Math.min(maxStrips,
+            pool.getParallelism() * STRIPS_PER_THREAD);
+
+        final int[] rowStart = new int[numStrips + 1];
+        for (int s = 0; s <= numStrips; s++)
+            rowStart[s] = (int) ((long) height * s / numStrips);
+
+        final int[] counts = new int[numStrips];
+
+        // pass 1: label every strip on its own
+        runStrips(pool, numStrips, new StripAction() {
+            @Override
+            public void run(int s)
+            {
+                labelStrip(px, width, eight, labels,
+                    rowStart[s], rowStart[s + 1]);
+            }
+        });
+
+        // join components across strip borders
+        for (int s = 1; s < numStrips; s++)
+            mergeRow(px, width, eight, labels, rowStart[s]);
+
+        // pass 2: count roots per strip
+        runStrips(pool, numStrips, new StripAction() {
+            @Override
+            public void run(int s)
+            {
+                int count = 0;
+                final int end = rowStart[s + 1] * width;
+                for (int i = rowStart[s] * width; i < end; i++)
+                {
+                    if (labels[i] == i) count++;
+                }
+                counts[s] = count;
+            }
+        });
+
+        final int[] base = new int[numStrips];
+        int total = 0;
+        for (int s = 0; s < numStrips; s++)
+        {
+            base[s] = total;
+            total += counts[s];
+        }
+
+        // pass 3: number the roots, stored negated
+        runStrips(pool, numStrips, new StripAction() {
+            @Override
+            public void run(int s)
+            {
+                int next = base[s];
+                final int end = rowStart[s + 1] * width;
+                for (int i = rowStart[s] * width; i < end; i++)
+                {
+                    if (labels[i] == i) labels[i] = -(++next);
+                }
+            }
+        });
+
+        // pass 4: resolve the other pixels to their roots' labels.
+        // A concurrent reader sees either a parent index or a negated
+        // label, and both lead to the right label.
+        runStrips(pool, numStrips, new StripAction() {
+            @Override
+            public void run(int s)
+            {
+                final int end = rowStart[s + 1] * width;
+                for (int i = rowStart[s] * width; i < end; i++)
+                {
+                    int v = labels[i];
+                    if (v == BG) continue;
+                    while (v >= 0) v = labels[v];
+                    labels[i] = v;
+                }
+            }
+        });
+
+        // pass 5: un-negate the labels
+        runStrips(pool, numStrips, new StripAction() {
+            @Override
+            public void run(int s)
+            {
+                final int end = rowStart[s + 1] * width;
+                for (int i = rowStart[s] * width; i < end; i++)
+                {
+                    final int v = labels[i];
+                    labels[i] = (v == BG ? 0 : -v);
+                }
+            }
+        });
+
+        return total;
+    }
+
+    /**
+     * Labels the rows [r0, r1) without looking outside of them.
+     * Only the label entries of the strip are read or written, so strips
+     * can be labeled concurrently.
+     */
+    private static void labelStrip(Pixels px, int width, boolean eight,
+        int[] parent, int r0, int r1)
+    {
+        for (int y = r0; y < r1; y++)
+        {
+            final int row = y * width;
+            for (int x = 0; x < width; x++)
+            {
+                final int i = row + x;
+                if (!px.isForeground(i))
+                {
+                    parent[i] = BG;
+                    continue;
+                }
+
+                parent[i] = i;
+
+                if (x > 0 && px.same(i, i - 1)) union(parent, i, i - 1);
+                if (y == r0) continue;
+
+                final int up = i - width;
+                if (px.same(i, up)) union(parent, i, up);
+                if (!eight) continue;
+
+                if (x > 0 && px.same(i, up - 1))
+                    union(parent, i, up - 1);
+                if (x < width - 1 && px.same(i, up + 1))
+                    union(parent, i, up + 1);
+            }
+        }
+    }
+
+    /** Joins the pixels of a row with their neighbours in the row above. */
+    private static void mergeRow(Pixels px, int width, boolean eight,
+        int[] parent, int y)
+    {
+        final int row = y * width;
+        for (int x = 0; x < width; x++)
+        {
+            final int i = row + x;
+            if (!px.isForeground(i)) continue;
+
+            final int up = i - width;
+            if (px.same(i, up)) union(parent, i, up);
+            if (!eight) continue;
+
+            if (x > 0 && px.same(i, up - 1))
+                union(parent, i, up - 1);
+            if (x < width - 1 && px.same(i, up + 1))
+                union(parent, i, up + 1);
+        }
+    }
+
+    /**
+     * Links the root with the larger index under the one with the smaller
+     * index. Hence every parent index is less than its child's index.
+     */
+    private static void union(int[] parent, int a, int b)
+    {
+        final int ra = find(parent, a);
+        final int rb = find(parent, b);
+
+        if (ra < rb) parent[rb] = ra;
+        else if (rb < ra) parent[ra] = rb;
+    }
+
+    /** Finds the root of a pixel with path halving. */
+    private static int find(int[] parent, int idx)
+    {
+        int p;
+        while ((p = parent[idx]) != idx)
+        {
+            final int gp = parent[p];
+            parent[idx] = gp;
+            idx = gp;
+        }
+        return idx;
+    }
+
+    private interface StripAction
+    {
+        void run(int strip);
+    }
+
+    private static void runStrips(ForkJoinPool pool, int numStrips,
+        final StripAction action)
+    {
+        if (numStrips == 1)
+        {
+            action.run(0);
+            return;
+        }
+
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute()
+            {
+                final List<RecursiveAction> tasks =
+                    new ArrayList<RecursiveAction>(numStrips);
+                for (int s = 0; s < numStrips; s++)
+                {
+                    final int strip = s;
+                    tasks.add(new RecursiveAction() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        protected void compute()
+                        {
+                            action.run(strip);
+                        }
+                    });
+                }
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    /** Pixel access shared by the labeling passes. */
+    private static abstract class Pixels
+    {
+        abstract boolean isForeground(int i);
+
+        /** Checks whether foreground pixel i is connected to pixel j if
+         * they are neighbours. */
+        abstract boolean same(int i, int j);
+    }
+
+    private static final class BytePixels extends Pixels
+    {
+        private final byte[] grid;
+
+        BytePixels(byte[] grid)
+        {
+            this.grid = grid;
+        }
+
+        @Override
+        boolean isForeground(int i)
+        {
+            return this.grid[i] != 0;
+        }
+
+        @Override
+        boolean same(int i, int j)
+        {
+            return this.grid[j] != 0;
+        }
+    }
+
+    private static final class IntPixels extends Pixels
+    {
+        private final int[] grid;
+
+        IntPixels(int[] grid)
+        {
+            this.grid = grid;
+        }
+
+        @Override
+        boolean isForeground(int i)
+        {
+            return this.grid[i] != 0;
+        }
+
+        @Override
+        boolean same(int i, int j)
+        {
+            return this.grid[i] == this.grid[j];
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package j.algo;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A union find backed by a memory-mapped snapshot written by 
+ * {@link UnionFind#save(File)}.
+ *
+ * Opening a snapshot does not read the forest into the heap, so huge
+ * forests are available immediately and pages are loaded on demand by the
+ * operating system. Depending on the map mode, the pages can be shared 
+ * with other processes mapping the same file:
+ * <ul>
+ * <li>READ_ONLY: the forest cannot be modified. Queries do not perform 
+ *     path compression. Any attempt to union throws
+ *     {@link java.nio.ReadOnlyBufferException}.</li>
+ * <li>READ_WRITE: changes, including path compression, are written 
+ *     through to the file.</li>
+ * <li>PRIVATE: changes are private to this instance (copy-on-write) and 
+ *     the file is never modified.</li>
+ * </ul>
+ *
+ * A single mapping is limited to 2GB, so the snapshot can hold at most
+ * {@link #MAX_ELEMS} elements.
+ *
+ * This class is not thread-safe, and no coordination is done between 
+ * processes that modify the same file.
+ * @author Lucas Tan
+ */
+public class MappedUnionFind
+{
+    /** Max number of elements in a snapshot that can be mapped. */
+    public static final int MAX_ELEMS = 
+        (Integer.MAX_VALUE - UnionFind.SNAPSHOT_HEADER_SIZE) / 4;
+
+    /** Byte offset of the number of disjoint sets in the header. */
+    private static final int NUM_DISJOINT_OFFSET = 8;
+
+    private final MappedByteBuffer map;
+
+    /** Int view of the elements following the header. 
+     * Same encoding as the rank array of {@link UnionFind}. */
+    private final IntBuffer rank;
+
+    private final boolean readOnly;
+
+    private int numDisjoint;
+
+    private MappedUnionFind(MappedByteBuffer map, boolean readOnly)
+    {
+        this.map = map;
+        this.readOnly = readOnly;
+        this.numDisjoint = map.getInt(NUM_DISJOINT_OFFSET);
+
+        map.position(UnionFind.SNAPSHOT_HEADER_SIZE);
+        this.rank = map.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        map.position(0);
+    }
+
+    /**
+     * Maps a snapshot file into memory.
+     * The mapping stays valid after this method returns, even though the
+     * underlying file is closed.
+     * @param mode One of the FileChannel.MapMode values. The file must be
+     *        writable for READ_WRITE and PRIVATE.
+     * @exception IOException if an I/O error occurs, the file is not a valid
+     *            snapshot or it is too large to be mapped.
+     * @exception IllegalArgumentException if mode is null.
+     */
+    public static MappedUnionFind open(File file, FileChannel.MapMode mode)
+        throws IOException
+    {
+        if (mode == null) throw new IllegalArgumentException("mode is null");
+
+        final boolean readOnly = (mode == FileChannel.MapMode.READ_ONLY);
+        // a PRIVATE mapping is writable, so it needs a writable channel
+        // even though the file is never modified.
+        final RandomAccessFile raf = 
+            new RandomAccessFile(file, readOnly ? "r" : "rw");
+        try
+        {
+            final FileChannel ch = raf.getChannel();
+            final long size = ch.size();
+            if (size < UnionFind.SNAPSHOT_HEADER_SIZE)
+                throw new IOException("not a union find snapshot");
+
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("snapshot too large to map");
+
+            final MappedByteBuffer map = ch.map(mode, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            UnionFind.checkHeader(map, size);
+
+            return new MappedUnionFind(map, readOnly);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Checks whether two elements are in the same set.
+     * @see UnionFind#connected(int, int)
+     */
+    public boolean connected(int a, int b)
+    {
+        return find(a) == find(b);
+    }
+
+    /**
+     * Union the sets that contain two specified elements.
+     * @see UnionFind#union(int, int)
+     * @exception java.nio.ReadOnlyBufferException 
+     *            if the snapshot is mapped read-only.
+     */
+    public boolean union(int a, int b)
+    {
+        int x = find(a);
+        int y = find(b);
+
+        if (x == y) return false;
+
+        final IntBuffer localRank = this.rank;
+        final int rankX = localRank.get(x);
+        final int rankY = localRank.get(y);
+
+        if (rankX < rankY)
+        {
+            // swap x and y
+            int t = x;
+            x = y;
+            y = t;
+        }
+        else if (rankX == rankY)
+        {
+            localRank.put(y, rankY - 1);
+        }
+
+        // make x a child of y
+        localRank.put(x, y);
+        this.numDisjoint --;
+        this.map.putInt(NUM_DISJOINT_OFFSET, this.numDisjoint);
+        return true;
+    }
+
+    /**
+     * Gets the number of disjoint sets.
+     * @see UnionFind#getDistinctCount()
+     */
+    public int getDistinctCount()
+    {
+        return this.numDisjoint;
+    }
+
+    /**
+     * Checks whether all the elements are connected together.
+     * @see UnionFind#areAllConnected()
+     */
+    public boolean areAllConnected()
+    {
+        return this.numDisjoint <= 1;
+    }
+
+    /**
+     * Forces any changes to be written to the file.
+     * This only has an effect in READ_WRITE mode.
+     */
+    public void force()
+    {
+        if (!this.readOnly) this.map.force();
+    }
+
+    private int find(int idx)
+    {
+        final IntBuffer localRank = this.rank;
+        int root = idx;
+
+        int parent;
+        while ((parent = localRank.get(root)) >= 0)
+            root = parent;
+
+        if (this.readOnly) return root;
+
+        // path compression
+        while ((parent = localRank.get(idx)) >= 0)
+        {
+            localRank.put(idx, root);
+            idx = parent;
+        }
+
+        return root;
+    }
+}
@@ -0,0 +1,222 @@
+package j.algo;
+
+import java.util.Arrays;
+
+/**
+ * A union find variant that supports undoing unions.
+ *
+ * Unlike {@link UnionFind}, this class uses union by rank only and
+ * never performs path compression, so every union changes exactly two
+ * array entries and can be undone in O(1). Each find costs
+ * O(log n) since the height of every tree is bounded by ranking.
+ *
+ * This makes the class suitable for offline dynamic connectivity where
+ * a divide-and-conquer over time adds edges, answers queries, then
+ * rolls the edges back with {@link #rollback(int)}.
+ *
+ * This class is not thread-safe.
+ * @author Lucas Tan
+ */
+public class RollbackUnionFind
+{
+    /** Number of ints pushed onto the undo stack per union. */
+    private static final int UNDO_FRAME = 3;
+
+    /** Max length of the undo stack, a multiple of UNDO_FRAME. */
+    private static final int MAX_UNDO_LEN =
+        (Integer.MAX_VALUE - 8) / UNDO_FRAME * UNDO_FRAME;
+
+    /** rank[i] = Rank of element i.
+     * Same encoding as {@link UnionFind}: a negative value indicates that
+     * the element is a canonical root and its magnitude is the height of
+     * the tree (starting from 1). Since there is no path compression, the
+     * height is exact.
+     * A non-negative value is the zero-based index of its parent. */
+    private final int[] rank;
+
+    /** Undo stack. Each successful union pushes a frame of
+     * {child root, old rank of child root, old rank of new root}. */
+    private int[] undo;
+
+    /** No. of valid ints in the undo stack. */
+    private int undoCount;
+
+    /** Number of disjoint sets (or trees). */
+    private int numDisjoint;
+
+    /**
+     * Constructs an instance with a specified number of elements. All
+     * elements are initially disjoint, that is, each element exists in a
+     * unique set by itself.
+     * @param numElems The total number of elements.
+     * @exception IllegalArgumentException if numElems is non-positive.
+     */
+    public RollbackUnionFind(int numElems)
+    {
+        if (numElems <= 0)
+        {
+            throw new IllegalArgumentException("numElems must > 0");
+        }
+
+        this.numDisjoint = numElems;
+        this.rank = new int[numElems];
+        Arrays.fill(this.rank, -1);
+        this.undo = new int[UNDO_FRAME * 32];
+        this.undoCount = 0;
+    }
+
+    /**
+     * Checks whether two elements are in the same set.
+     * The order of specifying the element indices does not matter.
+     * @param a The zero-based index of the first element.
+     * @param b The zero-based index of the other element.
+     * @return true if a and b are in the same set or a and b are the same;
+     *         false otherwise.
+     * @exception IndexOutOfBoundsException
+     *            if a or b is negative or out of bounds.
+     */
+    public boolean connected(int a, int b)
+    {
+        return find(a) == find(b);
+    }
+
+    /**
+     * Union the sets that contain two specified elements.
+     * The order of specifying the elements does not matter.
+     * A successful union can later be undone by {@link #rollback(int)}.
+     * @param a Zero-based index of the first element.
+     * @param b Zero-based index of the other element.
+     * @return true if the two sets are disjoint prior to union;
+     *         false otherwise, in which case nothing is recorded.
+     * @exception IndexOutOfBoundsException
+     *            if a or b is negative or out of bounds.
+     */
+    public boolean union(int a, int b)
+    {
+        int x = find(a);
+        int y = find(b);
+
+        if (x == y) return false;
+
+        // Make the shorter tree x, so that it becomes the child.
+        if (this.rank[x] < this.rank[y])
+        {
+            int t = x;
+            x = y;
+            y = t;
+        }
+
+        push(x, this.rank[x], this.rank[y]);
+
+        if (this.rank[x] == this.rank[y])
+        {
+            this.rank[y] --;
+        }
+
+        // make x a child of y
+        this.rank[x] = y;
+        this.numDisjoint --;
+        return true;
+    }
+
+    /**
+     * Gets a checkpoint which can later be passed to {@link #rollback(int)}
+     * to undo all unions performed after this call.
+     * @return A non-negative checkpoint.
+     */
+    public int checkpoint()
+    {
+        return this.undoCount;
+    }
+
+    /**
+     * Undoes all successful unions performed after a checkpoint was taken,
+     * in reverse order. Each undone union costs O(1).
+     * @param checkpoint A value previously returned by {@link #checkpoint()}.
+     *        A checkpoint which an earlier rollback went past is not
+     *        detected if the history has grown back beyond it; it then
+     *        undoes only the unions made after that much history.
+     * @exception IllegalArgumentException if checkpoint is negative or
+     *            later than the current state.
+     */
+    public void rollback(int checkpoint)
+    {
+        if (checkpoint < 0 || checkpoint > this.undoCount
+            || checkpoint % UNDO_FRAME != 0)
+        {
+            throw new IllegalArgumentException("invalid checkpoint");
+        }
+
+        final int[] localRank = this.rank;
+        final int[] localUndo = this.undo;
+        int idx = this.undoCount;
+
+        while (idx > checkpoint)
+        {
+            idx -= UNDO_FRAME;
+            final int x = localUndo[idx];
+            final int y = localRank[x];
+
+            localRank[y] = localUndo[idx + 2];
+            localRank[x] = localUndo[idx + 1];
+            this.numDisjoint ++;
+        }
+
+        this.undoCount = checkpoint;
+    }
+
+    /**
+     * Gets the number of disjoint sets.
+     * @return Returns a number between 1 and the
+     *         total number of elements, inclusively.
+     */
+    public int getDistinctCount()
+    {
+        return this.numDisjoint;
+    }
+
+    /**
+     * Checks whether all the elements are connected together, that is,
+     * they are all in the same set.
+     */
+    public boolean areAllConnected()
+    {
+        return this.numDisjoint <= 1;
+    }
+
+    /**
+     * Gets the zero-based index of the canonical root of an element.
+     * This never modifies the forest.
+     * @param idx The zero-based index of the element.
+     * @exception IndexOutOfBoundsException
+     *            if idx is negative or out of bounds.
+     */
+    public int find(int idx)
+    {
+        // Bounded by the height of the tree, which is at most
+        // log_2(Integer.MAX_VALUE + 1) due to ranking.
+        int parent;
+        while ((parent = this.rank[idx]) >= 0)
+        {
+            idx = parent;
+        }
+
+        return idx;
+    }
+
+    private void push(int x, int rankX, int rankY)
+    {
+        if (this.undoCount + UNDO_FRAME > this.undo.length)
+        {
+            // At most numElems-1 unions can be outstanding.
+            final long max = (long) UNDO_FRAME * this.rank.length;
+            final long newLen = Math.min(Math.min(max, MAX_UNDO_LEN),
+                Math.max(2L * this.undo.length, UNDO_FRAME));
+            this.undo = Arrays.copyOf(this.undo, (int) newLen);
+        }
+
+        this.undo[this.undoCount ++] = x;
+        this.undo[this.undoCount ++] = rankX;
+        this.undo[this.undoCount ++] = rankY;
+    }
+}
@@ -0,0 +1,356 @@
+package j.algo;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Minimum spanning forest algorithms over graphs stored as primitive
+ * edge arrays.
+ *
+ * Edge i connects vertices u[i] and v[i] and has weight w[i]. Edges are
+ * ordered by weight, with ties broken by edge index, so the minimum
+ * spanning forest is unique and both algorithms select the same edges.
+ * Self-loops are allowed and are never selected.
+ *
+ * All methods are thread-safe.
+ * @author Lucas Tan
+ */
+public final class SpanningForest
+{
+    // cannot instantiate
+    private SpanningForest(){}
+
+    /** Ranges of at most this many elements are processed by a single
+     * task in the parallel algorithms. */
+    private static final int LEAF_SIZE = 16 * 1024;
+
+    /** Ranges of at most this many elements are sorted by insertion
+     * sort. */
+    private static final int INSERTION_SORT_SIZE = 32;
+
+    /**
+     * Computes a minimum spanning forest using Kruskal's algorithm.
+     * The edge indices are sorted by weight with a parallel merge sort on
+     * the common fork-join pool, then fed to a {@link UnionFind}.
+     * @return Indices of the edges in the forest, in non-decreasing
+     *         weight order.
+     * @exception IllegalArgumentException if numVertices is non-positive,
+     *            the arrays have different lengths, or a weight is NaN.
+     * @exception IndexOutOfBoundsException if a vertex index is out of
+     *            bounds.
+     * @exception NullPointerException if any array is null.
+     */
+    public static int[] kruskal(int numVertices, int[] u, int[] v, double[] w)
+    {
+        checkEdges(numVertices, u, v, w);
+
+        final int m = u.length;
+        final int[] idx = new int[m];
+        for (int i = 0; i < m; i++) idx[i] = i;
+
+        sortByWeight(idx, w, ForkJoinPool.commonPool());
+
+        final UnionFind uf = new UnionFind(numVertices);
+        final int[] result = new int[Math.min(m, numVertices - 1)];
+        int count = 0;
+
+        for (int i = 0; i < m && count < result.length; i++)
+        {
+            final int e = idx[i];
+            if (uf.union(u[e], v[e])) result[count++] = e;
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Computes a minimum spanning forest using Boruvka's algorithm on the
+     * common fork-join pool.
+     * @see #boruvka(int, int[], int[], double[], ForkJoinPool)
+     */
+    public static int[] boruvka(int numVertices, int[] u, int[] v, double[] w)
+    {
+        return boruvka(numVertices, u, v, w, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes a minimum spanning forest using Boruvka's algorithm.
+     *
+     * Each round finds the cheapest edge leaving every component in
+     * parallel, dropping edges whose end points are already in the same
+     * component, and then merges the components. There are at most
+     * log_2(numVertices) rounds.
+     * @param pool Pool on which the parallel passes are run.
+     * @return Indices of the edges in the forest, in no particular order.
+     * @exception IllegalArgumentException if numVertices is non-positive,
+     *            the arrays have different lengths, or a weight is NaN.
+     * @exception IndexOutOfBoundsException if a vertex index is out of
+     *            bounds.
+     * @exception NullPointerException if any argument is null.
+     */
+    public static int[] boruvka(int numVertices, int[] u, int[] v,
+        double[] w, ForkJoinPool pool)
+    {
+        checkEdges(numVertices, u, v, w);
+        if (pool == null) throw new NullPointerException("pool is null");
+
+        final int m = u.length;
+        final UnionFind uf = new UnionFind(numVertices);
+
+        // comp[x] = canonical root of vertex x as of the current round
+        final int[] comp = new int[numVertices];
+        for (int i = 0; i < numVertices; i++) comp[i] = i;
+
+        // best[c] = cheapest edge leaving component c, or -1 if none
+        final AtomicIntegerArray best = new AtomicIntegerArray(numVertices);
+        for (int i = 0; i < numVertices; i++) best.set(i, -1);
+
+        // Indices of edges that might still join two components.
+        int[] alive = new int[m];
+        for (int i = 0; i < m; i++) alive[i] = i;
+        int numAlive = m;
+
+        final int[] result = new int[Math.min(m, numVertices - 1)];
+        int count = 0;
+
+        while (numAlive > 0)
+        {
+            final int numLeaves = (numAlive + LEAF_SIZE - 1) / LEAF_SIZE;
+            final int[] kept = new int[numLeaves];
+
+            pool.invoke(new CheapestEdgeTask(
+                u, v, w, comp, best, alive, numAlive, kept, 0, numLeaves));
+
+            // Compact the surviving edges of every leaf to the front.
+            int newAlive = 0;
+            for (int i = 0; i < numLeaves; i++)
+            {
+                System.arraycopy(alive, i * LEAF_SIZE, alive, newAlive,
+                    kept[i]);
+                newAlive += kept[i];
+            }
+            numAlive = newAlive;
+
+            // Merge every component with its cheapest neighbour.
+            boolean merged = false;
+            for (int c = 0; c < numVertices; c++)
+            {
+                final int e = best.get(c);
+                if (e < 0) continue;
+
+                best.set(c, -1);
+                if (uf.union(u[e], v[e]))
+                {
+                    result[count++] = e;
+                    merged = true;
+                }
+            }
+
+            if (!merged) break;
+
+            for (int i = 0; i < numVertices; i++) comp[i] = uf.find(i);
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Finds the cheapest edge leaving each component over a range of
+     * leaves of the alive edges, and compacts each leaf in place so that
+     * only edges between different components remain.
+     */
+    private static final class CheapestEdgeTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] u, v, comp, alive, kept;
+        private final double[] w;
+        private final AtomicIntegerArray best;
+        private final int numAlive, lo, hi;
+
+        CheapestEdgeTask(int[] u, int[] v, double[] w, int[] comp,
+            AtomicIntegerArray best, int[] alive, int numAlive, int[] kept,
+            int lo, int hi)
+        {
+            this.u = u;
+            this.v = v;
+            this.w = w;
+            this.comp = comp;
+            this.best = best;
+            this.alive = alive;
+            this.numAlive = numAlive;
+            this.kept = kept;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (this.hi - this.lo > 1)
+            {
+                final int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(
+                    new CheapestEdgeTask(this.u, this.v, this.w, this.comp,
+                        this.best, this.alive, this.numAlive, this.kept,
+                        this.lo, mid),
+                    new CheapestEdgeTask(this.u, this.v, this.w, this.comp,
+                        this.best, this.alive, this.numAlive, this.kept,
+                        mid, this.hi));
+                return;
+            }
+
+            final int start = this.lo * LEAF_SIZE;
+            final int end = Math.min(this.numAlive, start + LEAF_SIZE);
+            int out = start;
+
+            for (int i = start; i < end; i++)
+            {
+                final int e = this.alive[i];
+                final int cu = this.comp[this.u[e]];
+                final int cv = this.comp[this.v[e]];
+
+                // Both end points are in the same component, and will stay
+                // so, hence the edge can be dropped for good.
+                if (cu == cv) continue;
+
+                this.alive[out++] = e;
+                offer(cu, e);
+                offer(cv, e);
+            }
+
+            this.kept[this.lo] = out - start;
+        }
+
+        /** Atomically replaces best[c] by e if e is cheaper. */
+        private void offer(int c, int e)
+        {
+            while (true)
+            {
+                final int cur = this.best.get(c);
+                if (cur >= 0 && !less(this.w, e, cur)) return;
+                if (this.best.compareAndSet(c, cur, e)) return;
+            }
+        }
+    }
+
+    /**
+     * Sorts edge indices by weight in parallel, with ties broken by index.
+     */
+    static void sortByWeight(int[] idx, double[] w, ForkJoinPool pool)
+    {
+        if (idx.length < 2) return;
+        pool.invoke(new SortTask(idx, new int[idx.length], w,
+            0, idx.length));
+    }
+
+    /**
+     * Parallel merge sort of a range of edge indices.
+     */
+    private static final class SortTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] a, tmp;
+        private final double[] w;
+        private final int lo, hi;
+
+        SortTask(int[] a, int[] tmp, double[] w, int lo, int hi)
+        {
+            this.a = a;
+            this.tmp = tmp;
+            this.w = w;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute()
+        {
+            sort(this.lo, this.hi, this.hi - this.lo > LEAF_SIZE);
+        }
+
+        private void sort(int from, int to, boolean fork)
+        {
+            final int len = to - from;
+            if (len <= INSERTION_SORT_SIZE)
+            {
+                insertionSort(from, to);
+                return;
+            }
+
+            final int mid = (from + to) >>> 1;
+            if (fork)
+            {
+                invokeAll(new SortTask(this.a, this.tmp, this.w, from, mid),
+                    new SortTask(this.a, this.tmp, this.w, mid, to));
+            }
+            else
+            {
+                sort(from, mid, false);
+                sort(mid, to, false);
+            }
+
+            // already in order
+            if (!less(this.w, this.a[mid], this.a[mid - 1])) return;
+
+            System.arraycopy(this.a, from, this.tmp, from, len);
+            int i = from, j = mid, k = from;
+            while (i < mid && j < to)
+            {
+                this.a[k++] = less(this.w, this.tmp[j], this.tmp[i])
+                    ? this.tmp[j++] : this.tmp[i++];
+            }
+            while (i < mid) this.a[k++] = this.tmp[i++];
+            while (j < to) this.a[k++] = this.tmp[j++];
+        }
+
+        private void insertionSort(int from, int to)
+        {
+            for (int i = from + 1; i < to; i++)
+            {
+                final int e = this.a[i];
+                int j = i - 1;
+                while (j >= from && less(this.w, e, this.a[j]))
+                {
+                    this.a[j + 1] = this.a[j];
+                    j--;
+                }
+                this.a[j + 1] = e;
+            }
+        }
+    }
+
+    /** Checks whether edge a is cheaper than edge b. */
+    private static boolean less(double[] w, int a, int b)
+    {
+        final double wa = w[a];
+        final double wb = w[b];
+        return wa < wb || (wa == wb && a < b);
+    }
+
+    private static void checkEdges(int numVertices, int[] u, int[] v,
+        double[] w)
+    {
+        if (numVertices <= 0)
+            throw new IllegalArgumentException("numVertices must > 0");
+
+        if (u.length != v.length || u.length != w.length)
+            throw new IllegalArgumentException("edge arrays differ in length");
+
+        for (int i = 0; i < u.length; i++)
+        {
+            if (u[i] < 0 || u[i] >= numVertices
+                || v[i] < 0 || v[i] >= numVertices)
+            {
+                throw new IndexOutOfBoundsException(
+                    "vertex out of bounds at edge " + i);
+            }
+
+            if (Double.isNaN(w[i]))
+                throw new IllegalArgumentException("weight is NaN at edge " + i);
+        }
+    }
+}
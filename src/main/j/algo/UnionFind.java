@@ -1,8 +1,10 @@
 package j.algo;
 
-import java.util.Queue;
 import java.io.*;
-import j.collections.ArrayQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 
 /**
  * An implementation of the union find solution with ranking and 
@@ -11,6 +13,10 @@ import j.collections.ArrayQueue;
  * The elements are modeled as a forest with elements in each tree being
  * in the same set. Each tree has a canonical root.
  *
+ * A union find can be saved to a compact binary snapshot using
+ * {@link #save(File)} and restored using {@link #load(File)}, or mapped
+ * into memory directly using {@link MappedUnionFind}.
+ *
  * This class is not thread-safe.
  * @author Lucas Tan
  */
@@ -18,6 +24,16 @@ public class UnionFind implements Serializable
 {
     private static final long serialVersionUID = -5024744406713321675L;
 
+    /** Magic number at the start of a snapshot file, "UFS1". */
+    static final int SNAPSHOT_MAGIC = 0x55465331;
+
+    /** Size in bytes of the snapshot header: magic, number of elements,
+     * number of disjoint sets and a reserved int. */
+    static final int SNAPSHOT_HEADER_SIZE = 16;
+
+    /** Size in bytes of the buffer used to save and load snapshots. */
+    private static final int SNAPSHOT_BUF_SIZE = 64 * 1024;
+
     /** rank[i] = Rank of element i. 
      * A negative value indicates that the element is a canonical root of 
      * the membership set (or tree). The magnitude of the value is the 
@@ -28,9 +44,6 @@ public class UnionFind implements Serializable
      * is the zero-based index of its parent in the tree. */
     private final int[] rank;
 
-    /** Temp storage for path compression. */
-    private final transient Queue<Integer> pathQ;
-
     /** Number of disjoint sets (or trees). */
     private int numDisjoint;
 
@@ -50,7 +63,15 @@ public class UnionFind implements Serializable
         
         this.numDisjoint = numElems;
         this.rank = new int[numElems];
-        this.pathQ = new ArrayQueue<Integer>(32);
+
+        // Every element starts as a root of height 1.
+        Arrays.fill(this.rank, -1);
+    }
+
+    private UnionFind(int[] rank, int numDisjoint)
+    {
+        this.rank = rank;
+        this.numDisjoint = numDisjoint;
     }
     
     /**
@@ -107,6 +128,14 @@ public class UnionFind implements Serializable
         return true;
     }
     
+    /**
+     * Gets the total number of elements.
+     */
+    public int size()
+    {
+        return this.rank.length;
+    }
+
     /**
      * Gets the number of disjoint sets.
      * @return Returns a number between 1 and the
@@ -127,33 +156,156 @@ public class UnionFind implements Serializable
     }
     
     /**
-     * Gets the zero-based index of the canonical root of an element.
-     * @param idx The zero-based index of the element.
+     * Writes a snapshot of this instance to a file, replacing any
+     * existing content. The snapshot consists of a small header followed by
+     * the internal array as raw little-endian ints, and can be read back
+     * using {@link #load(File)} or {@link MappedUnionFind#open}.
+     * @exception IOException if an I/O error occurs.
      */
-    private int find(int idx)
+    public void save(File file) throws IOException
     {
-        // This loop's max iteration is bounded by the maximum length 
-        // of a path (due to ranking), which is log_2(Integer.MAX_VALUE + 1)
-        while(true)
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            final FileChannel ch = raf.getChannel();
+            ch.truncate(0);
+
+            final ByteBuffer bb = ByteBuffer.allocateDirect(SNAPSHOT_BUF_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            bb.putInt(SNAPSHOT_MAGIC);
+            bb.putInt(this.rank.length);
+            bb.putInt(this.numDisjoint);
+            bb.putInt(0);
+
+            bb.flip();
+            writeFully(ch, bb);
+
+            int idx = 0;
+            while (idx < this.rank.length)
+            {
+                final int n = Math.min(bb.capacity() >>> 2, 
+                    this.rank.length - idx);
+                bb.clear();
+                bb.asIntBuffer().put(this.rank, idx, n);
+                bb.limit(n << 2);
+                writeFully(ch, bb);
+                idx += n;
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #save(File)}.
+     * @exception IOException if an I/O error occurs or the file is not
+     *            a valid snapshot.
+     */
+    public static UnionFind load(File file) throws IOException
+    {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            final FileChannel ch = raf.getChannel();
+            final ByteBuffer bb = ByteBuffer.allocateDirect(SNAPSHOT_BUF_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+            bb.limit(SNAPSHOT_HEADER_SIZE);
+            readFully(ch, bb);
+            bb.flip();
+
+            final int numElems = checkHeader(bb, ch.size());
+            final int numDisjoint = bb.getInt(8);
+            final int[] rank = new int[numElems];
+
+            int idx = 0;
+            while (idx < numElems)
+            {
+                bb.clear();
+                bb.limit((int) Math.min(bb.capacity(), 4L * (numElems - idx)));
+                readFully(ch, bb);
+                bb.flip();
+
+                final int n = bb.remaining() >>> 2;
+                bb.asIntBuffer().get(rank, idx, n);
+                idx += n;
+            }
+
+            return new UnionFind(rank, numDisjoint);
+        }
+        finally
         {
-            final int theRank = this.rank[idx];
+            raf.close();
+        }
+    }
+
+    /**
+     * Validates a snapshot header.
+     * @param header Header bytes starting at position 0.
+     * @param fileSize Total size of the snapshot file.
+     * @return The number of elements.
+     */
+    static int checkHeader(ByteBuffer header, long fileSize) 
+        throws IOException
+    {
+        if (header.getInt(0) != SNAPSHOT_MAGIC)
+            throw new IOException("not a union find snapshot");
+
+        final int numElems = header.getInt(4);
+        final int numDisjoint = header.getInt(8);
+        if (numElems <= 0 || numDisjoint <= 0 || numDisjoint > numElems)
+            throw new IOException("corrupted snapshot header");
 
-            // If this elem is a canonical root, then break.
-            if (theRank < 0) break;
+        if (fileSize != SNAPSHOT_HEADER_SIZE + 4L * numElems)
+            throw new IOException("snapshot size mismatch");
+
+        return numElems;
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer bb)
+        throws IOException
+    {
+        while (bb.hasRemaining()) ch.write(bb);
+    }
 
-            // Remember index for path compression later.
-            this.pathQ.offer(idx);
-            
-            idx = theRank;
+    private static void readFully(FileChannel ch, ByteBuffer bb)
+        throws IOException
+    {
+        while (bb.hasRemaining())
+        {
+            if (ch.read(bb) < 0) 
+                throw new EOFException("truncated snapshot");
         }
+    }
+
+    /**
+     * Gets the zero-based index of the canonical root of an element.
+     * @param idx The zero-based index of the element.
+     * @exception IndexOutOfBoundsException 
+     *            if idx is negative or out of bounds.
+     */
+    int find(int idx)
+    {
+        final int[] localRank = this.rank;
+        int root = idx;
 
-        Integer polled;
+        // This loop's max iteration is bounded by the maximum length 
+        // of a path (due to ranking), which is log_2(Integer.MAX_VALUE + 1)
+        int parent;
+        while ((parent = localRank[root]) >= 0)
+            root = parent;
 
-        // Perform path compression.
-        while ((polled = this.pathQ.poll()) != null)
-            this.rank[polled] = idx;
+        // Perform path compression by walking the path a second time.
+        // This needs no temp storage, which also means nothing is lost
+        // when this instance is deserialized.
+        while ((parent = localRank[idx]) >= 0)
+        {
+            localRank[idx] = root;
+            idx = parent;
+        }
 
-        return idx;
+        return root;
     }
 }
-
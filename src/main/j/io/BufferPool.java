@@ -0,0 +1,402 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of byte arrays, char arrays and direct byte buffers, so that
+ * short-lived streams can reuse the buffers of those closed before them
+ * instead of allocating new ones.
+ *
+ * Buffers come in size classes of powers of two from 64 to 1M, and a
+ * request is served from the smallest class that fits, so a buffer can be
+ * larger than requested. Larger requests are allocated and never pooled.
+ * Each thread caches a couple of buffers of every class up to 64K, which
+ * are taken and put back without any lock; other buffers are kept in a
+ * shared stack per class, which holds a bounded no. of idle buffers.
+ *
+ * A buffer must not be used after it is put back, since it may be handed
+ * out again at once. In debug mode, the pool remembers where every buffer
+ * was taken, so that buffers which are never put back can be listed by
+ * {@link #getLeaks()}, and a buffer put back twice is detected. Debug mode
+ * of the default pool is turned on by the system property
+ * "j.io.BufferPool.debug".
+ *
+ * This class is thread-safe.
+ */
+public final class BufferPool
+{
+    /** log2 of the smallest size class */
+    static final int MIN_SHIFT = 6;
+
+    /** log2 of the largest size class */
+    static final int MAX_SHIFT = 20;
+
+    /** log2 of the largest size class cached per thread */
+    private static final int LOCAL_MAX_SHIFT = 16;
+
+    /** Max no. of buffers of a class cached per thread */
+    private static final int LOCAL_SLOTS = 2;
+
+    private static final int DEFAULT_MAX_IDLE = 64;
+
+    private static final BufferPool DEFAULT = new BufferPool(DEFAULT_MAX_IDLE,
+        Boolean.getBoolean("j.io.BufferPool.debug"));
+
+    private final Slab<byte[]> bytes;
+    private final Slab<char[]> chars;
+    private final Slab<ByteBuffer> direct;
+
+    /** Max no. of idle buffers of a class in a shared stack */
+    private final int maxIdle;
+
+    /** Where each buffer handed out was taken, or null if not in debug
+     * mode */
+    private final IdentityHashMap<Object, Throwable> taken;
+
+    /** No. of buffers allocated */
+    private final LongAdder allocations;
+
+    /**
+     * @param maxIdle Max no. of idle buffers of each kind and size class
+     *        that are shared by all threads, besides those cached by each
+     *        thread.
+     * @param debug Whether to track the buffers handed out.
+     * @exception IllegalArgumentException if maxIdle is negative.
+     */
+    public BufferPool(int maxIdle, boolean debug)
+    {
+        if (maxIdle < 0)
+            throw new IllegalArgumentException("maxIdle must >= 0");
+
+        this.maxIdle = maxIdle;
+        this.taken = (debug ? new IdentityHashMap<Object, Throwable>() : null);
+        this.allocations = new LongAdder();
+
+        this.bytes = new Slab<byte[]>()
+        {
+            @Override
+            byte[] allocate(int size)
+            {
+                return new byte[size];
+            }
+
+            @Override
+            int capacity(byte[] b)
+            {
+                return b.length;
+            }
+        };
+
+        this.chars = new Slab<char[]>()
+        {
+            @Override
+            char[] allocate(int size)
+            {
+                return new char[size];
+            }
+
+            @Override
+            int capacity(char[] c)
+            {
+                return c.length;
+            }
+        };
+
+        this.direct = new Slab<ByteBuffer>()
+        {
+            @Override
+            ByteBuffer allocate(int size)
+            {
+                return ByteBuffer.allocateDirect(size);
+            }
+
+            @Override
+            int capacity(ByteBuffer bb)
+            {
+                // heap buffers are never pooled as direct ones
+                return (bb.isDirect() ? bb.capacity() : -1);
+            }
+        };
+    }
+
+    /**
+     * Gets the pool used by the streams of this package.
+     */
+    public static BufferPool getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Gets the log2 of the size class of a request.
+     * @return -1 if the request is too large to be pooled.
+     */
+    static int classOf(int size)
+    {
+        if (size <= 1 << MIN_SHIFT) return MIN_SHIFT;
+
+        final int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return (shift > MAX_SHIFT ? -1 : shift);
+    }
+
+    /**
+     * Gets a byte array of at least a given length. Its content is
+     * undefined.
+     * @exception IllegalArgumentException if size is negative.
+     */
+    public byte[] getBytes(int size)
+    {
+        return this.bytes.get(size);
+    }
+
+    /**
+     * Gets a char array of at least a given length. Its content is
+     * undefined.
+     * @exception IllegalArgumentException if size is negative.
+     */
+    public char[] getChars(int size)
+    {
+        return this.chars.get(size);
+    }
+
+    /**
+     * Gets a cleared direct byte buffer of at least a given capacity,
+     * whose limit is its capacity. Its content is undefined.
+     * @exception IllegalArgumentException if size is negative.
+     */
+    public ByteBuffer getDirect(int size)
+    {
+        return this.direct.get(size);
+    }
+
+    /**
+     * Puts back a byte array, which must not be used any more. Arrays
+     * whose length is not a size class are dropped.
+     * @exception IllegalArgumentException if b is null.
+     * @exception IllegalStateException in debug mode, if b was not handed
+     *            out by this pool or was already put back.
+     */
+    public void put(byte[] b)
+    {
+        this.bytes.put(b, true);
+    }
+
+    /**
+     * Puts back a byte array like {@link #put(byte[])}, but never into the
+     * cache of the current thread, e.g., because the thread is about to
+     * exit.
+     */
+    void putShared(byte[] b)
+    {
+        this.bytes.put(b, false);
+    }
+
+    /**
+     * Puts back a char array, like {@link #put(byte[])}.
+     */
+    public void put(char[] c)
+    {
+        this.chars.put(c, true);
+    }
+
+    /**
+     * Puts back a direct byte buffer, like {@link #put(byte[])}.
+     */
+    public void put(ByteBuffer bb)
+    {
+        if (bb != null) bb.clear();
+
+        this.direct.put(bb, true);
+    }
+
+    /**
+     * Gets the no. of buffers allocated so far, as opposed to reused.
+     */
+    public long getAllocations()
+    {
+        return this.allocations.sum();
+    }
+
+    /**
+     * Gets the buffers handed out and not yet put back, in debug mode.
+     * @return The stack traces of where the buffers were taken; empty if
+     *         not in debug mode.
+     */
+    public List<Throwable> getLeaks()
+    {
+        final List<Throwable> leaks = new ArrayList<Throwable>();
+        if (this.taken == null) return leaks;
+
+        synchronized(this.taken)
+        {
+            leaks.addAll(this.taken.values());
+        }
+
+        return leaks;
+    }
+
+    private void track(Object buf)
+    {
+        if (this.taken == null) return;
+
+        synchronized(this.taken)
+        {
+            this.taken.put(buf, new Throwable("buffer of "
+                + Thread.currentThread().getName() + " taken here"));
+        }
+    }
+
+    private void untrack(Object buf)
+    {
+        if (this.taken == null) return;
+
+        synchronized(this.taken)
+        {
+            if (this.taken.remove(buf) == null)
+            {
+                throw new IllegalStateException(
+                    "buffer not taken or already put back");
+            }
+        }
+    }
+
+    /**
+     * The buffers of one kind.
+     */
+    private abstract class Slab<T>
+    {
+        /** Shared idle buffers by size class */
+        private final ArrayDeque<?>[] shared;
+
+        /** Idle buffers of the current thread by size class */
+        private final ThreadLocal<Object[][]> local;
+
+        Slab()
+        {
+            this.shared = new ArrayDeque<?>[MAX_SHIFT + 1];
+            for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++)
+                this.shared[i] = new ArrayDeque<T>();
+
+            this.local = new ThreadLocal<Object[][]>()
+            {
+                @Override
+                protected Object[][] initialValue()
+                {
+                    final Object[][] slots = new Object[LOCAL_MAX_SHIFT + 1][];
+                    for (int i = MIN_SHIFT; i <= LOCAL_MAX_SHIFT; i++)
+                        slots[i] = new Object[LOCAL_SLOTS];
+                    return slots;
+                }
+            };
+        }
+
+        abstract T allocate(int size);
+
+        /**
+         * @return The capacity of a buffer, or -1 if it cannot be pooled.
+         */
+        abstract int capacity(T buf);
+
+        @SuppressWarnings("unchecked")
+        private ArrayDeque<T> shared(int shift)
+        {
+            return (ArrayDeque<T>) this.shared[shift];
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int size)
+        {
+            if (size < 0)
+                throw new IllegalArgumentException("size must >= 0");
+
+            final int shift = classOf(size);
+            T buf = null;
+
+            if (shift < 0)
+            {
+                buf = newBuffer(size);
+            }
+            else
+            {
+                if (shift <= LOCAL_MAX_SHIFT)
+                {
+                    final Object[] slots = this.local.get()[shift];
+                    for (int i = 0; i < slots.length; i++)
+                    {
+                        if (slots[i] != null)
+                        {
+                            buf = (T) slots[i];
+                            slots[i] = null;
+                            break;
+                        }
+                    }
+                }
+
+                if (buf == null)
+                {
+                    final ArrayDeque<T> stack = shared(shift);
+                    synchronized(stack)
+                    {
+                        buf = stack.pollFirst();
+                    }
+                }
+
+                if (buf == null) buf = newBuffer(1 << shift);
+            }
+
+            track(buf);
+            return buf;
+        }
+
+        private T newBuffer(int size)
+        {
+            BufferPool.this.allocations.increment();
+            return allocate(size);
+        }
+
+        /**
+         * @param local Whether the buffer can be cached by the current
+         *        thread.
+         */
+        void put(T buf, boolean local)
+        {
+            if (buf == null)
+                throw new IllegalArgumentException("buffer is null");
+
+            untrack(buf);
+
+            final int cap = capacity(buf);
+            final int shift = (cap > 0 ? classOf(cap) : -1);
+            if (shift < 0 || cap != 1 << shift) return;
+
+            if (local && shift <= LOCAL_MAX_SHIFT)
+            {
+                final Object[] slots = this.local.get()[shift];
+                for (int i = 0; i < slots.length; i++)
+                {
+                    if (slots[i] == null)
+                    {
+                        slots[i] = buf;
+                        return;
+                    }
+                }
+            }
+
+            final ArrayDeque<T> stack = shared(shift);
+            synchronized(stack)
+            {
+                if (stack.size() < BufferPool.this.maxIdle)
+                    stack.addFirst(buf);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package j.io;
+
+/**
+ * A reusable view of a range of chars held in another object's buffer,
+ * such as the line returned by {@link LineReader#readLine(CharSlice)}.
+ *
+ * The content of a slice is only valid until the next read from the
+ * object that filled it. Use {@link #toString()} to keep a copy.
+ *
+ * This class is not thread-safe.
+ * @author Lucas Tan
+ */
+public final class CharSlice implements CharSequence
+{
+    private char[] array;
+
+    private int offset;
+
+    private int length;
+
+    /**
+     * Constructs an empty slice.
+     */
+    public CharSlice()
+    {
+        set(new char[0], 0, 0);
+    }
+
+    /**
+     * Points this slice at a range of chars. The chars are not copied.
+     */
+    void set(char[] array, int offset, int length)
+    {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Gets the array holding the chars. It must not be modified.
+     */
+    public char[] getArray()
+    {
+        return this.array;
+    }
+
+    /**
+     * Gets the index of the first char in the array.
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    @Override
+    public int length()
+    {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int idx)
+    {
+        if (idx < 0 || idx >= this.length)
+            throw new IndexOutOfBoundsException("idx out of bounds");
+
+        return this.array[this.offset + idx];
+    }
+
+    /**
+     * Gets a view of part of this slice, sharing the same array.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > this.length || start > end)
+            throw new IndexOutOfBoundsException("invalid range");
+
+        final CharSlice s = new CharSlice();
+        s.set(this.array, this.offset + start, end - start);
+        return s;
+    }
+
+    /**
+     * Copies the chars into a new String.
+     */
+    @Override
+    public String toString()
+    {
+        return new String(this.array, this.offset, this.length);
+    }
+}
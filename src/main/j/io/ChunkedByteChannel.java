@@ -0,0 +1,343 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes HTTP chunked encoding to a GatheringByteChannel.
+ *
+ * Small writes are copied into an internal direct buffer and written as
+ * one chunk when it is full, like {@link ChunkedOutputStream}. A write of
+ * at least the buffer size is framed without copying: the chunk header,
+ * the caller's buffer and the CRLF are written with one vectored write.
+ * File regions can be framed with {@link #transferFrom(FileChannel, long,
+ * long)}, which lets the file system send them without passing through the
+ * heap.
+ *
+ * The underlying channel should be in blocking mode, since partial writes
+ * are retried until everything is written.
+ *
+ * This class is thread-safe.
+ */
+public class ChunkedByteChannel implements WritableByteChannel
+{
+    private static final int DEFAULT_BUF_SIZE = 8192;
+
+    private static final byte[] NEW_LINE = {'\r', '\n'};
+
+    private static final byte[] LAST_CHUNK =
+        // no trailing headers after 0\r\n
+        {'0', '\r', '\n', '\r', '\n'};
+
+    private static final byte[] HEX =
+        {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+         'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /** Space for a chunk header: up to 16 hex digits for a long size,
+     * and CRLF. */
+    private static final int HEADER_SPACE = 16 + NEW_LINE.length;
+
+    /** Space reserved after the buffered data for the CRLF ending the
+     * chunk, and the last chunk. */
+    private static final int TRAILER_SPACE =
+        NEW_LINE.length + LAST_CHUNK.length;
+
+    private final GatheringByteChannel out;
+
+    /** Buffer for small writes. Data starts at HEADER_SPACE. */
+    private final ByteBuffer buf;
+
+    /** Max no. of data bytes in buffer */
+    private final int size;
+
+    /** No. of valid data bytes in buffer */
+    private int count;
+
+    /** Header of a chunk that is not buffered. */
+    private final ByteBuffer header;
+
+    /** CRLF ending a chunk that is not buffered. */
+    private final ByteBuffer newLine;
+
+    /** Buffers of a vectored write. */
+    private final ByteBuffer[] vec;
+
+    /** Whether the channel is closed. */
+    private boolean closed;
+
+    public ChunkedByteChannel(GatheringByteChannel out)
+    {
+        this(out, DEFAULT_BUF_SIZE);
+    }
+
+    /**
+     * @param size Size of the internal buffer. Writes of at least this
+     *        many bytes are not copied.
+     * @exception IllegalArgumentException if out is null or
+     *            size is non-positive.
+     */
+    public ChunkedByteChannel(GatheringByteChannel out, int size)
+    {
+        if (out == null)
+            throw new IllegalArgumentException("out is null");
+
+        if (size <= 0)
+            throw new IllegalArgumentException("size must > 0");
+
+        if (size > Integer.MAX_VALUE - HEADER_SPACE - TRAILER_SPACE)
+            throw new IllegalArgumentException("size too large");
+
+        this.out = out;
+        this.buf = ByteBuffer.allocateDirect(
+            HEADER_SPACE + size + TRAILER_SPACE);
+        this.size = size;
+        this.count = 0;
+        this.header = ByteBuffer.allocateDirect(HEADER_SPACE);
+        this.newLine = ByteBuffer.allocateDirect(NEW_LINE.length);
+        this.vec = new ByteBuffer[3];
+        this.closed = false;
+    }
+
+    private void checkClose() throws IOException
+    {
+        if (this.closed) throw new ClosedChannelException();
+    }
+
+    /**
+     * Writes the hex chunk size and CRLF so that they end at a given index
+     * of a buffer.
+     * @return The index of the first byte of the header.
+     */
+    private static int fillHeader(long count, ByteBuffer b, int end)
+    {
+        int idx = end - NEW_LINE.length;
+        b.put(idx, (byte) '\r');
+        b.put(idx + 1, (byte) '\n');
+
+        do
+        {
+            idx--;
+            b.put(idx, HEX[(int) count & 0xf]);
+            count >>>= 4;
+        }
+        while (count != 0);
+
+        return idx;
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException
+    {
+        while (b.hasRemaining()) this.out.write(b);
+    }
+
+    /**
+     * Writes the buffer as a chunk, framed in place.
+     * @param last Whether to append the last chunk, which indicates the
+     *             end of the stream.
+     */
+    private void flushBuffer(boolean last) throws IOException
+    {
+        final ByteBuffer local = this.buf;
+        int start = HEADER_SPACE;
+        int end = HEADER_SPACE;
+
+        // Only frame if count > 0, otherwise
+        // this would output the last chunk format.
+        if (this.count > 0)
+        {
+            start = fillHeader(this.count, local, HEADER_SPACE);
+            end += this.count;
+            local.position(end);
+            local.put(NEW_LINE);
+            end += NEW_LINE.length;
+            this.count = 0;
+        }
+
+        if (last)
+        {
+            local.position(end);
+            local.put(LAST_CHUNK);
+            end += LAST_CHUNK.length;
+        }
+
+        if (end > start)
+        {
+            local.limit(end);
+            local.position(start);
+            writeFully(local);
+        }
+
+        local.clear();
+    }
+
+    /**
+     * Starts a chunk that is not buffered, after flushing the buffer.
+     * Sets up the header and CRLF buffers for a vectored write.
+     */
+    private void startChunk(long len) throws IOException
+    {
+        flushBuffer(false);
+
+        this.header.clear();
+        final int start = fillHeader(len, this.header, HEADER_SPACE);
+        this.header.position(start);
+
+        this.newLine.clear();
+        this.newLine.put(NEW_LINE);
+        this.newLine.flip();
+    }
+
+    /**
+     * Writes bytes as chunked data. All remaining bytes of src are
+     * written before this returns.
+     * @return The number of bytes of src written.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        final int len = src.remaining();
+
+        synchronized(this)
+        {
+            checkClose();
+
+            if (len == 0) return 0;
+
+            if (len >= this.size)
+            {
+                // Vectored write without copying.
+                startChunk(len);
+
+                final ByteBuffer[] localVec = this.vec;
+                localVec[0] = this.header;
+                localVec[1] = src;
+                localVec[2] = this.newLine;
+                try
+                {
+                    while (this.newLine.hasRemaining())
+                        this.out.write(localVec);
+                }
+                finally
+                {
+                    localVec[1] = null;
+                }
+
+                return len;
+            }
+
+            // flush buffer if necessary to make space for incoming
+            if (len > this.size - this.count)
+                flushBuffer(false);
+
+            this.buf.position(HEADER_SPACE + this.count);
+            this.buf.put(src);
+            this.buf.clear();
+            this.count += len;
+            return len;
+        }
+    }
+
+    /**
+     * Writes a region of a file as one chunk using
+     * {@link FileChannel#transferTo}, which might avoid copying the data
+     * through user space.
+     * @param file File to read from. Its position is not changed.
+     * @param position Position in the file to start reading from.
+     * @param count Number of bytes to transfer.
+     * @return The number of bytes transferred, which is less than count
+     *         only if the file is shorter than position + count.
+     * @exception IllegalArgumentException if position or count is negative.
+     */
+    public long transferFrom(FileChannel file, long position, long count)
+        throws IOException
+    {
+        if (position < 0 || count < 0)
+            throw new IllegalArgumentException("negative position or count");
+
+        synchronized(this)
+        {
+            checkClose();
+
+            // The chunk size must be known before the data, so
+            // the region is clipped to the end of the file.
+            count = Math.max(0, Math.min(count, file.size() - position));
+            if (count == 0) return 0;
+
+            startChunk(count);
+            writeFully(this.header);
+
+            long done = 0;
+            while (done < count)
+            {
+                final long n = file.transferTo(position + done,
+                    count - done, this.out);
+                if (n <= 0)
+                {
+                    // the file has shrunk, and the chunk can no longer
+                    // be completed.
+                    throw new EOFException("file truncated");
+                }
+                done += n;
+            }
+
+            writeFully(this.newLine);
+            return count;
+        }
+    }
+
+    /**
+     * Writes any buffered data as a chunk.
+     */
+    public void flush() throws IOException
+    {
+        synchronized(this)
+        {
+            checkClose();
+            flushBuffer(false);
+        }
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        synchronized(this)
+        {
+            return !this.closed;
+        }
+    }
+
+    /**
+     * Writes any buffered data and the last chunk, then closes the
+     * underlying channel.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        // close() can be called multiple times.
+        // but only the first time would be effective.
+
+        synchronized(this)
+        {
+            if (this.closed) return;
+
+            this.closed = true;
+
+            try
+            {
+                flushBuffer(true);
+            }
+            finally
+            {
+                this.out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A non-blocking decoder of HTTP chunked encoding.
+ *
+ * Unlike {@link ChunkedInputStream}, which pulls from a blocking stream,
+ * this decoder is pushed fragments of input of any size, e.g., as they
+ * arrive from a non-blocking channel. It keeps track of where it is in
+ * the chunk-size lines, chunk extensions, chunk data, CRLFs and trailing
+ * headers across fragments, and hands out the chunk data as views of the
+ * fragments without copying.
+ *
+ * Typical usage:
+ * <pre>
+ * while (!decoder.isFinished())
+ * {
+ *     // read more input into buf, then flip it
+ *     ByteBuffer data;
+ *     while ((data = decoder.decode(buf)) != null)
+ *         consume(data);
+ *     // compact buf
+ * }
+ * </pre>
+ *
+ * Line terminators must be CRLF or LF. Chunk extensions are skipped.
+ * Lines are bounded by configurable limits, and exceeding them throws
+ * {@link LimitExceededException}.
+ *
+ * This class is not thread-safe.
+ */
+public class ChunkedDecoder
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Decoder states
+    /** Reading the hex digits of a chunk size. */
+    private static final int S_SIZE = 0;
+    /** Skipping a chunk extension. */
+    private static final int S_EXT = 1;
+    /** Expecting the LF of a chunk-size line. */
+    private static final int S_SIZE_LF = 2;
+    /** Reading chunk data. */
+    private static final int S_DATA = 3;
+    /** Expecting the CRLF after chunk data. */
+    private static final int S_DATA_END = 4;
+    /** Expecting the LF after chunk data. */
+    private static final int S_DATA_LF = 5;
+    /** Reading a trailing header line. */
+    private static final int S_TRAILER = 6;
+    /** Expecting the LF of a trailing header line. */
+    private static final int S_TRAILER_LF = 7;
+    /** Everything has been decoded. */
+    private static final int S_DONE = 8;
+
+    private final int maxLineLength;
+
+    private final int maxTrailers;
+
+    private final int maxTrailerBytes;
+
+    private int state;
+
+    /** Chunk size being parsed, or no. of data bytes left in the chunk. */
+    private long size;
+
+    /** No. of bytes read of the current line. */
+    private int lineLen;
+
+    /** Bytes of the current trailing header line. */
+    private byte[] lineBuf;
+
+    /** Remaining budget of bytes for trailing headers. */
+    private int trailerBudget;
+
+    private List<String> trailingHeaders;
+
+    /**
+     * Constructs a decoder without limits.
+     */
+    public ChunkedDecoder()
+    {
+        this(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxLineLength Max no. of bytes in a chunk-size line or a
+     *        trailing header, excluding the line terminator.
+     * @param maxTrailers Max no. of trailing headers.
+     * @param maxTrailerBytes Max total no. of bytes in trailing headers,
+     *        excluding line terminators.
+     * @exception IllegalArgumentException if maxLineLength is non-positive
+     *            or any other limit is negative.
+     */
+    public ChunkedDecoder(int maxLineLength, int maxTrailers,
+        int maxTrailerBytes)
+    {
+        if (maxLineLength <= 0)
+            throw new IllegalArgumentException("maxLineLength must > 0");
+
+        if (maxTrailers < 0)
+            throw new IllegalArgumentException("maxTrailers must >= 0");
+
+        if (maxTrailerBytes < 0)
+            throw new IllegalArgumentException("maxTrailerBytes must >= 0");
+
+        this.maxLineLength = maxLineLength;
+        this.maxTrailers = maxTrailers;
+        this.maxTrailerBytes = maxTrailerBytes;
+        reset();
+    }
+
+    /**
+     * Resets this decoder so that it can decode another chunked body.
+     */
+    public void reset()
+    {
+        this.state = S_SIZE;
+        this.size = 0;
+        this.lineLen = 0;
+        this.trailerBudget = this.maxTrailerBytes;
+        this.trailingHeaders = null;
+    }
+
+    /**
+     * Checks whether the last chunk and the trailing headers have been
+     * decoded. Bytes following them are never consumed.
+     */
+    public boolean isFinished()
+    {
+        return this.state == S_DONE;
+    }
+
+    /**
+     * Gets the trailing headers that appear after the last chunk.
+     * @return Before decoding is finished, returns null; else returns
+     *         an unmodifiable list of headers which can be empty.
+     */
+    public List<String> getTrailingHeaders()
+    {
+        return this.trailingHeaders;
+    }
+
+    /**
+     * Decodes bytes from a fragment of input, up to the next chunk data.
+     * The position of src is advanced past the bytes consumed.
+     * @return A view of src containing chunk data, which shares its
+     *         content; or null if src has been used up without reaching any
+     *         chunk data, or decoding is finished.
+     * @exception IOException if the input is malformed.
+     * @exception LimitExceededException if a limit is exceeded.
+     */
+    public ByteBuffer decode(ByteBuffer src) throws IOException
+    {
+        while (true)
+        {
+            if (this.state == S_DONE) return null;
+
+            if (this.state == S_DATA)
+            {
+                final int n = (int) Math.min(this.size, src.remaining());
+                if (n == 0) return null;
+
+                final int pos = src.position();
+                final int oldLimit = src.limit();
+                src.limit(pos + n);
+                final ByteBuffer data = src.slice();
+                src.limit(oldLimit);
+                src.position(pos + n);
+
+                this.size -= n;
+                if (this.size == 0) this.state = S_DATA_END;
+                return data;
+            }
+
+            if (!src.hasRemaining()) return null;
+
+            step(src.get());
+        }
+    }
+
+    /**
+     * Advances the state by one framing byte.
+     */
+    private void step(byte b) throws IOException
+    {
+        switch (this.state)
+        {
+        case S_SIZE:
+            {
+                final int n = Character.digit(b, 16);
+                if (n >= 0)
+                {
+                    if (this.size > (Long.MAX_VALUE >>> 4))
+                        throw new IOException("chunk size too large");
+
+                    this.size = (this.size << 4) + n;
+                    countLine();
+                    return;
+                }
+
+                // there must be at least one valid hexadec digit
+                if (this.lineLen == 0)
+                    throw new IOException("malformed chunk size");
+
+                if (b == '\r') this.state = S_SIZE_LF;
+                else if (b == '\n') endSizeLine();
+                else if (b == ';' || b == ' ' || b == '\t')
+                {
+                    countLine();
+                    this.state = S_EXT;
+                }
+                else throw new IOException("malformed chunk size");
+                return;
+            }
+
+        case S_EXT:
+            // we ignore chunk extension for now
+            if (b == '\r') this.state = S_SIZE_LF;
+            else if (b == '\n') endSizeLine();
+            else countLine();
+            return;
+
+        case S_SIZE_LF:
+            expectLF(b);
+            endSizeLine();
+            return;
+
+        case S_DATA_END:
+            if (b == '\r') this.state = S_DATA_LF;
+            else if (b == '\n') this.state = S_SIZE;
+            else throw new IOException("missing CRLF after chunk data");
+            return;
+
+        case S_DATA_LF:
+            expectLF(b);
+            this.state = S_SIZE;
+            return;
+
+        case S_TRAILER:
+            if (b == '\r') this.state = S_TRAILER_LF;
+            else if (b == '\n') endTrailerLine();
+            else appendTrailer(b);
+            return;
+
+        case S_TRAILER_LF:
+            expectLF(b);
+            endTrailerLine();
+            return;
+
+        default:
+            throw new IllegalStateException("bad state: " + this.state);
+        }
+    }
+
+    private void countLine() throws IOException
+    {
+        if (this.lineLen >= this.maxLineLength)
+        {
+            throw new LimitExceededException("chunk-size line too long",
+                this.maxLineLength);
+        }
+
+        this.lineLen++;
+    }
+
+    private static void expectLF(byte b) throws IOException
+    {
+        if (b != '\n') throw new IOException("CR not followed by LF");
+    }
+
+    private void endSizeLine()
+    {
+        this.lineLen = 0;
+
+        if (this.size > 0)
+        {
+            this.state = S_DATA;
+            return;
+        }
+
+        // The last chunk contains OPTIONAL trailing HTTP headers
+        // with each on a separate line, ended by a blank line.
+        this.trailingHeaders = new ArrayList<String>();
+        this.state = S_TRAILER;
+    }
+
+    private void appendTrailer(byte b) throws IOException
+    {
+        if (this.lineLen >= this.maxLineLength)
+        {
+            throw new LimitExceededException("trailing header too long",
+                this.maxLineLength);
+        }
+
+        if (this.trailerBudget <= 0)
+        {
+            throw new LimitExceededException("trailing headers too long",
+                this.maxTrailerBytes);
+        }
+
+        if (this.lineLen == 0
+            && this.trailingHeaders.size() >= this.maxTrailers)
+        {
+            throw new LimitExceededException("too many trailing headers",
+                this.maxTrailers);
+        }
+
+        if (this.lineBuf == null)
+            this.lineBuf = new byte[64];
+        else if (this.lineLen == this.lineBuf.length)
+            this.lineBuf = Arrays.copyOf(this.lineBuf, this.lineLen * 2);
+
+        this.lineBuf[this.lineLen++] = b;
+        this.trailerBudget--;
+    }
+
+    private void endTrailerLine()
+    {
+        if (this.lineLen == 0)
+        {
+            this.trailingHeaders =
+                Collections.unmodifiableList(this.trailingHeaders);
+            this.state = S_DONE;
+            return;
+        }
+
+        this.trailingHeaders.add(
+            new String(this.lineBuf, 0, this.lineLen, UTF_8));
+        this.lineLen = 0;
+        this.state = S_TRAILER;
+    }
+}
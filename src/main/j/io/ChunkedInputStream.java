@@ -5,16 +5,28 @@
 package j.io;
 
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
  * Represents an HTTP chunked input stream.
+ * The read methods throw a {@link LimitExceededException} if a chunk-size
+ * line or the trailing headers exceed the configured limits.
+ *
+ * Chunk-size lines are parsed from the bytes of the underlying stream
+ * without allocating. Chunk extensions are only decoded on request, and
+ * trailing headers can be discarded if they are not needed.
+ *
  * This class is not thread-safe.
  */
 public class ChunkedInputStream extends FilterInputStream
 {
     private static final int SKIP_BUF_SIZE = 2048;
-    private static byte[] skipBuf;
+
+    private static final int DEFAULT_EXT_BUF_SIZE = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     // Some values for curLeft
     private static final int CHUNK_NONE = -2;
@@ -28,20 +40,95 @@ public class ChunkedInputStream extends FilterInputStream
     /** Trailing headers after the last chunk */
     private List<String> trailingHeaders;
 
+    /** Max no. of trailing headers */
+    private final int maxTrailers;
+
+    /** Max total no. of bytes in trailing headers,
+     * excluding line terminators */
+    private final int maxTrailerBytes;
+
+    /** Whether trailing headers are kept */
+    private final boolean keepTrailers;
+
+    /** Slice reused for reading chunk-size lines and trailers */
+    private final LineSlice line;
+
+    /** Bytes of the extension of the current chunk */
+    private byte[] extBuf;
+
+    /** No. of bytes in extBuf, or -1 if there is no extension */
+    private int extLen;
+
+    /** Decoded extension of the current chunk, or null if not decoded */
+    private String extension;
+
+    /** Buffer for read() */
+    private final byte[] oneByte;
+
     /**
      * @param inner Underlying input stream.
      * @exception IllegalArgumentException if inner is null
      */
     public ChunkedInputStream(LineInputStream inner)
+    {
+        this(inner, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a stream that bounds the memory used for trailing headers.
+     * The length of each chunk-size line is bounded by the max line length
+     * of the underlying stream.
+     * @param inner Underlying input stream.
+     * @param maxTrailers Max no. of trailing headers.
+     * @param maxTrailerBytes Max total no. of bytes in trailing headers,
+     *        excluding line terminators.
+     * @exception IllegalArgumentException if inner is null, or maxTrailers
+     *            or maxTrailerBytes is negative.
+     */
+    public ChunkedInputStream(LineInputStream inner, int maxTrailers,
+        int maxTrailerBytes)
+    {
+        this(inner, maxTrailers, maxTrailerBytes, true);
+    }
+
+    /**
+     * Constructs a stream that bounds the memory used for trailing headers
+     * and optionally discards them.
+     * @param inner Underlying input stream.
+     * @param maxTrailers Max no. of trailing headers.
+     * @param maxTrailerBytes Max total no. of bytes in trailing headers,
+     *        excluding line terminators.
+     * @param keepTrailers Whether to keep the trailing headers. If false,
+     *        they are still read and checked against the limits, but
+     *        {@link #getTrailingHeaders()} returns an empty list.
+     * @exception IllegalArgumentException if inner is null, or maxTrailers
+     *            or maxTrailerBytes is negative.
+     */
+    public ChunkedInputStream(LineInputStream inner, int maxTrailers,
+        int maxTrailerBytes, boolean keepTrailers)
     {
         super(inner);
 
         if (inner == null)
             throw new IllegalArgumentException("inner is null");
 
+        if (maxTrailers < 0)
+            throw new IllegalArgumentException("maxTrailers must >= 0");
+
+        if (maxTrailerBytes < 0)
+            throw new IllegalArgumentException("maxTrailerBytes must >= 0");
+
         this.curLeft = CHUNK_FIRST;
         this.inner = inner;
         this.trailingHeaders = null;
+        this.maxTrailers = maxTrailers;
+        this.maxTrailerBytes = maxTrailerBytes;
+        this.keepTrailers = keepTrailers;
+        this.line = new LineSlice();
+        this.extBuf = null;
+        this.extLen = -1;
+        this.extension = null;
+        this.oneByte = new byte[1];
     }
     
     /**
@@ -100,27 +187,30 @@ public class ChunkedInputStream extends FilterInputStream
         default:
             // if this is not the first chunk,
             // then read the terminating CRLF of the current chunk.
-            local.readLine();
+            local.readLine(this.line);
 
             // fall thru
 
         case CHUNK_FIRST: {
-            final String line = local.readLine();
-            final int lineLen = line.length();
+            final LineSlice localLine = local.readLine(this.line);
+            if (localLine == null)
+                throw new EOFException("missing chunk size");
 
             // line is of the form:
             // <chunk-size> [; chunk-extension]
             // where <chunk-size> is in hexadec without any prefix
-            // and chunk-extension is optional
-
-            // we ignore chunk extension for now
+            // and chunk-extension is optional.
+            // The bytes are parsed in place to avoid decoding the line.
+            final byte[] b = localLine.getArray();
+            final int start = localLine.getOffset();
+            final int end = start + localLine.getLength();
             
             // Parse the chunk size
             long size = 0;
-            int idx = 0;
-            for (; idx < lineLen; idx++)
+            int idx = start;
+            for (; idx < end; idx++)
             {
-                final int n = Character.digit(line.charAt(idx), 16);
+                final int n = hexDigit(b[idx]);
                 if (n >= 0)
                 {
                     size = (size << 4) + n;
@@ -135,7 +225,9 @@ public class ChunkedInputStream extends FilterInputStream
             }
         
             // there must be at least one valid hexadec digit
-            if (idx == 0) throw new IOException("malformed chunk size");
+            if (idx == start) throw new IOException("malformed chunk size");
+
+            saveExtension(b, idx, end);
             
             if (size > 0)
             {
@@ -146,25 +238,7 @@ public class ChunkedInputStream extends FilterInputStream
             if (size == 0)
             {
                 this.curLeft = CHUNK_NONE;
-
-                // This last chunk contains OPTIONAL "Trailing HTTP headers"
-                // with each on a separate line. 
-                // The format of the last chunk is :
-                // 0 CRLF
-                // [trailing header] CRLF
-                // [...] CRLF
-                // CRLF
-            
-                this.trailingHeaders = new ArrayList<String>();
-
-                // read until we hit a blank line
-                String tmp = null;
-                while(!(tmp = local.readLine()).isEmpty())
-                {
-                    this.trailingHeaders.add(tmp);
-                }
-                this.trailingHeaders = 
-                    Collections.unmodifiableList(this.trailingHeaders);
+                readTrailers(local);
                 return;
             }
 
@@ -173,12 +247,123 @@ public class ChunkedInputStream extends FilterInputStream
         } } // switch
     }
 
+    /**
+     * Gets the value of a hexadec digit.
+     * @return -1 if b is not a hexadec digit.
+     */
+    private static int hexDigit(byte b)
+    {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+
+    /**
+     * Keeps the bytes of the chunk extension, if any, which follow the
+     * first ';' after the chunk size. The bytes are only decoded if
+     * {@link #getChunkExtension()} is called.
+     */
+    private void saveExtension(byte[] b, int idx, int end)
+    {
+        this.extension = null;
+        this.extLen = -1;
+
+        while (idx < end && b[idx] != ';') idx++;
+        if (idx >= end) return;
+
+        idx++;
+        final int len = end - idx;
+        if (this.extBuf == null || this.extBuf.length < len)
+            this.extBuf = new byte[Math.max(len, DEFAULT_EXT_BUF_SIZE)];
+
+        System.arraycopy(b, idx, this.extBuf, 0, len);
+        this.extLen = len;
+    }
+
+    /**
+     * Reads the trailing headers after the last chunk, keeping them only
+     * if requested.
+     */
+    private void readTrailers(LineInputStream local) throws IOException
+    {
+        // This last chunk contains OPTIONAL "Trailing HTTP headers"
+        // with each on a separate line. 
+        // The format of the last chunk is :
+        // 0 CRLF
+        // [trailing header] CRLF
+        // [...] CRLF
+        // CRLF
+    
+        final List<String> headers = 
+            (this.keepTrailers ? new ArrayList<String>() : null);
+        int count = 0;
+        int budget = this.maxTrailerBytes;
+
+        // read until we hit a blank line, failing as soon as
+        // a limit is exceeded.
+        while (true)
+        {
+            final LineSlice tmp;
+            try
+            {
+                tmp = local.readLine(this.line, budget);
+            }
+            catch (LimitExceededException e)
+            {
+                // report the whole budget, not what is left of it, unless
+                // the line is longer than the stream allows anyway
+                if (budget >= local.getMaxLineLength()) throw e;
+
+                throw new LimitExceededException(
+                    "trailing headers too long", this.maxTrailerBytes);
+            }
+
+            if (tmp == null) 
+                throw new EOFException("missing end of trailers");
+
+            if (tmp.getLength() == 0) break;
+
+            if (count >= this.maxTrailers)
+            {
+                throw new LimitExceededException(
+                    "too many trailing headers", this.maxTrailers);
+            }
+
+            count++;
+            budget -= tmp.getLength();
+            if (headers != null) headers.add(tmp.toString());
+        }
+
+        this.trailingHeaders = (headers == null
+            ? Collections.<String>emptyList()
+            : Collections.unmodifiableList(headers));
+    }
+
+    /**
+     * Gets the extension of the chunk being read, i.e., the text after
+     * the ';' following the chunk size, e.g., "name=value".
+     * The text is decoded as UTF-8 on first call for each chunk.
+     * @return null if the chunk has no extension or no chunk has been
+     *         read yet.
+     */
+    public String getChunkExtension()
+    {
+        if (this.extension == null && this.extLen >= 0)
+        {
+            this.extension = new String(this.extBuf, 0, this.extLen, 
+                UTF_8);
+        }
+
+        return this.extension;
+    }
+
     /**
      * Gets the trailing headers that appear after the last chunk.
      * @return Before the last chunk is read, returns null.
      *         After the last chunk is read, i.e., read() returns -1, returns 
      *         an unmodifiable list of headers which can be empty if there
-     *         is none.
+     *         is none or they are not kept.
      */
     public List<String> getTrailingHeaders()
     {
@@ -188,7 +373,7 @@ public class ChunkedInputStream extends FilterInputStream
     @Override
     public int read() throws IOException
     {
-        byte[] b = {0};
+        final byte[] b = this.oneByte;
         final int read = this.read(b, 0, 1);
         if (read >= 0) return ((int)b[0]) & 255;
         return read;
@@ -220,6 +405,80 @@ public class ChunkedInputStream extends FilterInputStream
         return read;
     }
 
+    /**
+     * Transfers the remaining chunk data to an output stream, a whole
+     * chunk at a time. If the underlying stream is a file and out is a
+     * file, the data is not copied through user space.
+     * @return The no. of bytes transferred.
+     * @exception IllegalArgumentException if out is null.
+     */
+    @Override
+    public long transferTo(OutputStream out) throws IOException
+    {
+        if (out == null)
+            throw new IllegalArgumentException("out is null");
+
+        final LineInputStream local = getIn();
+
+        long total = 0;
+        while (nextChunk(local))
+        {
+            final long n = Transfer.transfer(local, this.curLeft, out);
+            total += n;
+            if (!advance(n)) break;
+        }
+
+        return total;
+    }
+
+    /**
+     * Transfers the remaining chunk data to a channel, a whole chunk at a
+     * time. If the underlying stream is a file, the data is sent with
+     * {@link java.nio.channels.FileChannel#transferTo}, which does not copy
+     * it through user space.
+     * @return The no. of bytes transferred.
+     * @exception IllegalArgumentException if out is null.
+     */
+    public long transferTo(WritableByteChannel out) throws IOException
+    {
+        if (out == null)
+            throw new IllegalArgumentException("out is null");
+
+        final LineInputStream local = getIn();
+
+        long total = 0;
+        while (nextChunk(local))
+        {
+            final long n = Transfer.transfer(local, this.curLeft, out);
+            total += n;
+            if (!advance(n)) break;
+        }
+
+        return total;
+    }
+
+    /**
+     * Moves on to the next chunk if the current one has been read.
+     * @return false if there is no more chunk.
+     */
+    private boolean nextChunk(LineInputStream local) throws IOException
+    {
+        if (this.curLeft <= 0) readChunk(local);
+        return this.curLeft > 0;
+    }
+
+    /**
+     * Accounts for n bytes transferred from the current chunk.
+     * @return false if the end of the underlying stream has been reached
+     *         before the end of the chunk.
+     */
+    private boolean advance(long n)
+    {
+        final boolean complete = (n == this.curLeft);
+        this.curLeft -= (int) n;
+        return complete;
+    }
+
     @Override
     public long skip(long n)
         throws IOException
@@ -228,21 +487,23 @@ public class ChunkedInputStream extends FilterInputStream
         
         long left = n;
         
-        // note: there might be contention here...
-        // multiple buffers might be created but
-        // it should be harmless, just that some memory will
-        // be allocated for nothing.
-        if (this.skipBuf == null)
-            this.skipBuf = new byte[SKIP_BUF_SIZE];
-
-        final byte[] localBuf = this.skipBuf;
-        while(left > 0)
+        // a scratch buffer of the current thread, in the common case
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] localBuf = pool.getBytes(SKIP_BUF_SIZE);
+        try
         {
-            final int nread = read(localBuf, 0, 
-                (int) Math.min(left, localBuf.length));
-            if (nread < 0) break;
+            while(left > 0)
+            {
+                final int nread = read(localBuf, 0, 
+                    (int) Math.min(left, localBuf.length));
+                if (nread < 0) break;
 
-            left -= nread;
+                left -= nread;
+            }
+        }
+        finally
+        {
+            pool.put(localBuf);
         }
 
         return n - left;
@@ -9,12 +9,17 @@ import java.io.*;
 /**
  * Represents an HTTP chunked output stream.
  * There is a built-in internal buffering mechanism.
+ * The buffer reserves space for the chunk header in front of the data and
+ * for the CRLF after it, so that every chunk is written to the underlying
+ * stream with a single write. Large writes are copied through the buffer
+ * in chunks of the buffer size, since one copy costs less than the extra
+ * small writes of framing the caller's bytes in place.
+ * The buffer is taken from the default {@link BufferPool} and put back
+ * when the stream is closed.
  * This class is thread-safe.
  */
 public class ChunkedOutputStream extends FilterOutputStream
 {
-    private static final int DEFAULT_BUF_SIZE = 8192;
-
     private static final byte[] NEW_LINE = {'\r', '\n'};
     
     private static final byte[] LAST_CHUNK = 
@@ -25,10 +30,26 @@ public class ChunkedOutputStream extends FilterOutputStream
         {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 
          'a', 'b', 'c', 'd', 'e', 'f'};
 
-    /** Buffer */
-    private final byte[] buf;
+    /** Space reserved in front of the data for the chunk header:
+     * up to 8 hex digits for an int size, and CRLF. */
+    static final int HEADER_SPACE = 8 + NEW_LINE.length;
+
+    /** Space reserved after the data for the CRLF ending the chunk,
+     * and the last chunk. */
+    static final int TRAILER_SPACE = NEW_LINE.length + LAST_CHUNK.length;
+
+    /** Default max no. of data bytes in a chunk, such that the buffer
+     * fits in a size class of 8K of the buffer pool. */
+    private static final int DEFAULT_BUF_SIZE =
+        8192 - HEADER_SPACE - TRAILER_SPACE;
 
-    /** No. of valid bytes in buffer */
+    /** Buffer. Data starts at HEADER_SPACE. Null once closed. */
+    private byte[] buf;
+
+    /** Max no. of data bytes in buffer */
+    private final int size;
+
+    /** No. of valid data bytes in buffer */
     private int count;
 
     /** Whether the stream is closed. */
@@ -40,6 +61,7 @@ public class ChunkedOutputStream extends FilterOutputStream
     }
 
     /**
+     * @param size Max no. of data bytes in each chunk.
      * @exception IllegalArgumentException if out is null or
      *            size is non-positive.
      */
@@ -53,7 +75,12 @@ public class ChunkedOutputStream extends FilterOutputStream
         if (size <= 0)
             throw new IllegalArgumentException("size must > 0");
 
-        this.buf = new byte[size];
+        if (size > Integer.MAX_VALUE - HEADER_SPACE - TRAILER_SPACE)
+            throw new IllegalArgumentException("size too large");
+
+        this.buf = BufferPool.getDefault().getBytes(
+            HEADER_SPACE + size + TRAILER_SPACE);
+        this.size = size;
         this.count = 0;
         this.closed = false;
     }
@@ -63,56 +90,73 @@ public class ChunkedOutputStream extends FilterOutputStream
         if (this.closed) throw new IOException("stream closed");
     }
 
-    private void writeChunk(byte[] header, int headerCount,
-        byte[] b, int off, int len)
-        throws IOException
-    {
-        this.out.write(header, 0, headerCount);
-        this.out.write(b, off, len);
-        this.out.write(NEW_LINE);
-    }
-
-    private static int fillHeader(int count, byte[] b)
+    /**
+     * Writes the hex chunk size and CRLF so that they end at a given index.
+     * @return The index of the first byte of the header.
+     */
+    private static int fillHeader(int count, byte[] b, int end)
     {
-        int tmp = count;
-        int ndigit = 0;
+        int idx = end - NEW_LINE.length;
+        b[idx] = '\r';
+        b[idx+1] = '\n';
 
         do
         {
-            ndigit++;
-            tmp >>>= 4;
-        }
-        while(tmp != 0);
-
-        int idx = ndigit-1;
-        do
-        {
-            b[idx] = HEX[count & 0xf];
             idx--;
+            b[idx] = HEX[count & 0xf];
             count >>>= 4;
         }
         while(count != 0);
 
-        b[ndigit] = '\r';
-        b[ndigit+1] = '\n';
-        return ndigit+2;
+        return idx;
     }
 
     /**
-     * Writes the buffer as a chunk.
+     * Writes the data of a buffer as a chunk, framed in place with a
+     * single write.
+     * @param buf Buffer whose data starts at HEADER_SPACE, with
+     *            TRAILER_SPACE free after it.
+     * @param count No. of data bytes.
+     * @param last Whether to append the last chunk, which indicates the
+     *             end of the stream.
      */
-    private void flushBuffer() throws IOException
+    static void writeChunk(OutputStream out, byte[] buf, int count,
+        boolean last) throws IOException
     {
-        // Only flush if count > 0, otherwise
-        // flushBuffer will output the last chunk format
+        int start = HEADER_SPACE;
+        int end = HEADER_SPACE;
+
+        // Only frame if count > 0, otherwise
+        // this would output the last chunk format
         // which indicates the end of the stream.
-        if (this.count > 0)
+        if (count > 0)
+        {
+            start = fillHeader(count, buf, HEADER_SPACE);
+            end += count;
+            System.arraycopy(NEW_LINE, 0, buf, end, NEW_LINE.length);
+            end += NEW_LINE.length;
+        }
+
+        if (last)
         {
-            byte [] header = {0,1,2,3,4,5,6,7,8,9,10};
-            int headerCount = fillHeader(this.count, header);
-            writeChunk(header, headerCount, this.buf, 0, this.count);
-            this.count = 0;
+            System.arraycopy(LAST_CHUNK, 0, buf, end, LAST_CHUNK.length);
+            end += LAST_CHUNK.length;
         }
+
+        if (end > start)
+            out.write(buf, start, end - start);
+    }
+
+    /**
+     * Writes the buffer as a chunk.
+     * @param last Whether to append the last chunk, which indicates the
+     *             end of the stream.
+     */
+    private void flushBuffer(boolean last) throws IOException
+    {
+        final int n = this.count;
+        this.count = 0;
+        writeChunk(this.out, this.buf, n, last);
     }
 
     @Override
@@ -122,10 +166,10 @@ public class ChunkedOutputStream extends FilterOutputStream
         {
             checkClose();
             
-            if (this.count >= this.buf.length)
-                flushBuffer();
+            if (this.count >= this.size)
+                flushBuffer(false);
 
-            this.buf[this.count ++] = (byte)i;
+            this.buf[HEADER_SPACE + this.count ++] = (byte)i;
         }
     }
 
@@ -133,33 +177,25 @@ public class ChunkedOutputStream extends FilterOutputStream
     public void write(byte[] b, int off, int len)
         throws IOException
     {
-        if (len >= this.buf.length)
-        {
-            byte [] header = {0,1,2,3,4,5,6,7,8,9,10};
-            int headerCount = fillHeader(len, header);
-
-            synchronized(this)
-            {
-                checkClose();
-                
-                // Writes directly to underlying stream
-                // if len is larger than buffer size.
-                flushBuffer();
-                writeChunk(header, headerCount, b, off, len);
-            }
-            return;
-        }
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
 
         synchronized(this)
         {
             checkClose();
 
-            // flush buffer if necessary to make space for incoming
-            if (len > this.buf.length - this.count)
-                flushBuffer();
-
-            System.arraycopy(b, off, this.buf, this.count, len);
-            this.count += len;
+            while (len > 0)
+            {
+                // flush buffer if necessary to make space for incoming
+                if (this.count >= this.size)
+                    flushBuffer(false);
+
+                final int n = Math.min(len, this.size - this.count);
+                System.arraycopy(b, off, this.buf, HEADER_SPACE + this.count, n);
+                this.count += n;
+                off += n;
+                len -= n;
+            }
         }
     }
 
@@ -174,12 +210,19 @@ public class ChunkedOutputStream extends FilterOutputStream
             if (this.closed) return;
             
             this.closed = true;
-        }
-      
-        flushBuffer();
 
-        // We must only write this exactly once.
-        this.out.write(LAST_CHUNK, 0, LAST_CHUNK.length);
+            try
+            {
+                // We must only write the last chunk exactly once.
+                // It goes out with the remaining data in one write.
+                flushBuffer(true);
+            }
+            finally
+            {
+                BufferPool.getDefault().put(this.buf);
+                this.buf = null;
+            }
+        }
 
         try
         {
@@ -199,10 +242,9 @@ public class ChunkedOutputStream extends FilterOutputStream
         synchronized(this)
         {
             checkClose();
-            flushBuffer();
+            flushBuffer(false);
         }
 
         this.out.flush();
     }
 }
-
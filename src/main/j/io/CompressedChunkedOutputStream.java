@@ -0,0 +1,384 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Represents an HTTP chunked output stream whose data is compressed in the
+ * gzip or deflate (zlib) format, i.e., with both "Content-Encoding" and
+ * "Transfer-Encoding: chunked".
+ *
+ * It does the work of a GZIPOutputStream over a {@link ChunkedOutputStream}
+ * with one buffer instead of three: the deflater writes straight into the
+ * chunk buffer, which reserves space for the chunk header like
+ * ChunkedOutputStream, so every chunk is written with a single write.
+ *
+ * Deflaters are pooled and reused across streams. The compression level
+ * is picked from the expected payload length by {@link #levelFor(long)}.
+ * A chunk is written whenever the buffer is full. Since highly
+ * compressible input can go a long way without filling the buffer, the
+ * deflater is also flushed to a chunk boundary after a bounded amount of
+ * input, so the receiver never lags too far behind. {@link #flush()}
+ * does the same, so everything written so far can be decompressed.
+ *
+ * This class is thread-safe.
+ */
+public class CompressedChunkedOutputStream extends FilterOutputStream
+{
+    private static final int DEFAULT_BUF_SIZE = 8192;
+
+    /** gzip member header: magic, deflate method, no flags, no time,
+     * no extra flags, unknown OS. */
+    private static final byte[] GZIP_HEADER =
+        {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    /** Size of the gzip trailer: CRC-32 and input size. */
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    /** Space reserved in front of the data for the chunk header */
+    private static final int HEADER_SPACE = ChunkedOutputStream.HEADER_SPACE;
+
+    /** Space reserved after the data for the CRLF ending the chunk,
+     * and the last chunk. */
+    private static final int TRAILER_SPACE =
+        ChunkedOutputStream.TRAILER_SPACE;
+
+    /** Min size of the buffer, which must hold the gzip header and
+     * trailer. */
+    private static final int MIN_BUF_SIZE = 64;
+
+    /** Max no. of input bytes per buffer size that are compressed before
+     * the deflater is flushed to a chunk boundary. */
+    private static final int MAX_INPUT_RATIO = 16;
+
+    /** Payloads up to this length are compressed with the best
+     * compression, since they cost little in any case. */
+    static final long SMALL_PAYLOAD = 64 * 1024;
+
+    /** Payloads longer than this are compressed with the best speed. */
+    static final long LARGE_PAYLOAD = 1024 * 1024;
+
+    private static final DeflaterPool GZIP_POOL = new DeflaterPool(true);
+
+    private static final DeflaterPool ZLIB_POOL = new DeflaterPool(false);
+
+    /** Buffer. Data starts at HEADER_SPACE. */
+    private final byte[] buf;
+
+    /** Max no. of data bytes in buffer */
+    private final int size;
+
+    /** No. of valid data bytes in buffer */
+    private int count;
+
+    /** Whether the gzip format is used; otherwise the zlib format. */
+    private final boolean gzip;
+
+    private Deflater deflater;
+
+    /** Checksum of the input in the gzip format, or null. */
+    private final CRC32 crc;
+
+    /** No. of input bytes since the deflater was last flushed. */
+    private long pendingInput;
+
+    /** Buffer for write(int) */
+    private final byte[] oneByte;
+
+    /** Whether the stream is closed. */
+    private boolean closed;
+
+    /**
+     * Constructs a stream of unknown payload length.
+     * @param gzip true for the gzip format; false for the zlib format,
+     *        which is the "deflate" content coding of HTTP.
+     */
+    public CompressedChunkedOutputStream(OutputStream out, boolean gzip)
+    {
+        this(out, gzip, DEFAULT_BUF_SIZE, -1);
+    }
+
+    /**
+     * @param gzip true for the gzip format; false for the zlib format,
+     *        which is the "deflate" content coding of HTTP.
+     * @param size Max no. of data bytes in each chunk.
+     * @param expectedLength Expected no. of bytes of uncompressed
+     *        payload, or negative if unknown. It is used to pick the
+     *        compression level.
+     * @exception IllegalArgumentException if out is null or
+     *            size is less than 64.
+     */
+    public CompressedChunkedOutputStream(OutputStream out, boolean gzip,
+        int size, long expectedLength)
+    {
+        super(out);
+
+        if (out == null)
+            throw new IllegalArgumentException("out is null");
+
+        if (size < MIN_BUF_SIZE)
+            throw new IllegalArgumentException("size must >= " + MIN_BUF_SIZE);
+
+        if (size > Integer.MAX_VALUE - HEADER_SPACE - TRAILER_SPACE)
+            throw new IllegalArgumentException("size too large");
+
+        this.buf = new byte[HEADER_SPACE + size + TRAILER_SPACE];
+        this.size = size;
+        this.count = 0;
+        this.gzip = gzip;
+        this.crc = (gzip ? new CRC32() : null);
+        this.pendingInput = 0;
+        this.oneByte = new byte[1];
+        this.closed = false;
+
+        this.deflater = (gzip ? GZIP_POOL : ZLIB_POOL).get(
+            levelFor(expectedLength));
+
+        if (gzip) append(GZIP_HEADER, 0, GZIP_HEADER.length);
+    }
+
+    /**
+     * Gets the compression level for a payload length. Small payloads get
+     * the best compression and large ones the best speed, so the time
+     * spent per response stays bounded.
+     * @param length No. of bytes of payload, or negative if unknown.
+     */
+    public static int levelFor(long length)
+    {
+        if (length < 0) return Deflater.DEFAULT_COMPRESSION;
+        if (length <= SMALL_PAYLOAD) return Deflater.BEST_COMPRESSION;
+        if (length <= LARGE_PAYLOAD) return Deflater.DEFAULT_COMPRESSION;
+        return Deflater.BEST_SPEED;
+    }
+
+    private void checkClose() throws IOException
+    {
+        if (this.closed) throw new IOException("stream closed");
+    }
+
+    /**
+     * Appends bytes that are not compressed to the buffer.
+     */
+    private void append(byte[] b, int off, int len)
+    {
+        // the buffer is never full here since it is flushed as soon as
+        // it becomes full, and it can hold the gzip header and trailer.
+        System.arraycopy(b, off, this.buf, HEADER_SPACE + this.count, len);
+        this.count += len;
+    }
+
+    /**
+     * Writes the buffer as a chunk, framed in place like
+     * {@link ChunkedOutputStream}.
+     * @param last Whether to append the last chunk, which indicates the
+     *             end of the stream.
+     */
+    private void flushBuffer(boolean last) throws IOException
+    {
+        final int n = this.count;
+        this.count = 0;
+        ChunkedOutputStream.writeChunk(this.out, this.buf, n, last);
+    }
+
+    /**
+     * Runs the deflater once into the free space of the buffer, writing
+     * a chunk if the buffer becomes full.
+     * @return true if the free space was used up, in which case the
+     *         deflater might have more output.
+     */
+    private boolean deflateOnce(int mode) throws IOException
+    {
+        final int avail = this.size - this.count;
+        final int n = this.deflater.deflate(this.buf,
+            HEADER_SPACE + this.count, avail, mode);
+        this.count += n;
+
+        if (this.count >= this.size) flushBuffer(false);
+        return n == avail;
+    }
+
+    @Override
+    public void write(int i) throws IOException
+    {
+        synchronized(this)
+        {
+            this.oneByte[0] = (byte) i;
+            write(this.oneByte, 0, 1);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        synchronized(this)
+        {
+            checkClose();
+
+            if (len == 0) return;
+
+            if (this.crc != null) this.crc.update(b, off, len);
+
+            // The input is not copied, so it must be used up before
+            // returning.
+            final Deflater localDef = this.deflater;
+            localDef.setInput(b, off, len);
+            while (!localDef.needsInput()) deflateOnce(Deflater.NO_FLUSH);
+
+            this.pendingInput += len;
+            if (this.pendingInput >= (long) this.size * MAX_INPUT_RATIO)
+                syncFlush();
+        }
+    }
+
+    /**
+     * Flushes the deflater and writes the buffer as a chunk, so that all
+     * input so far can be decompressed by the receiver.
+     */
+    private void syncFlush() throws IOException
+    {
+        while (deflateOnce(Deflater.SYNC_FLUSH)) { }
+        flushBuffer(false);
+        this.pendingInput = 0;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        // close() can be called multiple times.
+        // but only the first time would be effective.
+
+        synchronized(this)
+        {
+            if (this.closed) return;
+
+            this.closed = true;
+
+            try
+            {
+                final Deflater localDef = this.deflater;
+                localDef.finish();
+                while (!localDef.finished()) deflateOnce(Deflater.NO_FLUSH);
+
+                if (this.gzip)
+                {
+                    if (this.size - this.count < GZIP_TRAILER_SIZE)
+                        flushBuffer(false);
+
+                    final byte[] trailer = new byte[GZIP_TRAILER_SIZE];
+                    writeIntLE(trailer, 0, (int) this.crc.getValue());
+                    writeIntLE(trailer, 4, this.deflater.getTotalIn());
+                    append(trailer, 0, trailer.length);
+                }
+
+                // We must only write the last chunk exactly once.
+                // It goes out with the remaining data in one write.
+                flushBuffer(true);
+            }
+            finally
+            {
+                (this.gzip ? GZIP_POOL : ZLIB_POOL).put(this.deflater);
+                this.deflater = null;
+            }
+        }
+
+        try
+        {
+            // must flush so the last chunk can be written properly.
+            // This is necessary since this.out.close() is not required
+            // to do a flush() first.
+            this.out.flush();
+        }
+        catch (IOException e){/*nothing*/}
+
+        this.out.close();
+    }
+
+    /**
+     * Flushes the deflater at a chunk boundary, so that everything
+     * written so far can be decompressed by the receiver. Like
+     * {@link ChunkedOutputStream#flush()}, nothing is written if nothing
+     * has been written since the last flush.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        synchronized(this)
+        {
+            checkClose();
+
+            // a sync flush without input would still make an empty
+            // deflate block, and so a chunk
+            if (this.pendingInput > 0) syncFlush();
+            else flushBuffer(false);
+        }
+
+        this.out.flush();
+    }
+
+    private static void writeIntLE(byte[] b, int off, int v)
+    {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    /**
+     * A bounded pool of deflaters of one format.
+     */
+    private static final class DeflaterPool
+    {
+        /** Max no. of idle deflaters kept */
+        private static final int MAX_IDLE = 16;
+
+        private final boolean nowrap;
+
+        private final ArrayDeque<Deflater> idle;
+
+        DeflaterPool(boolean nowrap)
+        {
+            this.nowrap = nowrap;
+            this.idle = new ArrayDeque<Deflater>();
+        }
+
+        Deflater get(int level)
+        {
+            Deflater d;
+            synchronized(this)
+            {
+                d = this.idle.pollFirst();
+            }
+
+            if (d == null) return new Deflater(level, this.nowrap);
+
+            d.setLevel(level);
+            return d;
+        }
+
+        void put(Deflater d)
+        {
+            d.reset();
+
+            synchronized(this)
+            {
+                if (this.idle.size() < MAX_IDLE)
+                {
+                    this.idle.addFirst(d);
+                    return;
+                }
+            }
+
+            d.end();
+        }
+    }
+}
@@ -1,19 +1,47 @@
 package j.io;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public final class FileUtil
 {
     private FileUtil(){}
 
     public static final String DEFAULT_CHARSET = "utf-8";
-    
+
     public static final String LINE_SEP = System.getProperty("line.separator");
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** Max size in bytes of each range of lines processed by a task. */
+    private static final long MAX_RANGE_SIZE = 64L * 1024 * 1024;
+
+    /** Min size in bytes of each range of lines processed by a task. */
+    private static final long MIN_RANGE_SIZE = 1024L * 1024;
+
+    /** No. of bytes mapped past the end of a range so that its last line
+     * can usually be completed without mapping again. */
+    private static final int RANGE_LOOKAHEAD = 64 * 1024;
+
+    /** Max no. of bytes mapped at a time. */
+    private static final long MAX_MAP_SIZE = Integer.MAX_VALUE - 8;
+
     /**
      * Reads an entire UTF-8 text file into memory as a {@link String}.
-     * This can handle various line ending conventions, but line endings 
+     * This can handle various line ending conventions, but line endings
      * will be converted into the underlying platform's default.
      */
     public static String readAll(File file)
@@ -24,7 +52,7 @@ public final class FileUtil
 
     /**
      * Reads an entire UTF-8 text file into memory as a {@link String}.
-     * This can handle various line ending conventions, but line endings 
+     * This can handle various line ending conventions, but line endings
      * will be converted into the underlying platform's default.
      */
     public static String readAll(String filePath)
@@ -35,7 +63,7 @@ public final class FileUtil
 
     /**
      * Reads an entire text file into memory as a {@link String}.
-     * This can handle various line ending conventions, but line endings 
+     * This can handle various line ending conventions, but line endings
      * will be converted into the underlying platform's default.
      */
     public static String readAll(String filePath, String charset)
@@ -46,35 +74,439 @@ public final class FileUtil
 
     /**
      * Reads an entire text file into memory as a {@link String}.
-     * This can handle various line ending conventions, but line endings 
+     * This can handle various line ending conventions, but line endings
      * will be converted into the underlying platform's default.
+     * The last line terminator, if any, is dropped.
+     * @exception UnsupportedEncodingException if the charset is not
+     *            supported.
      */
     public static String readAll(File file, String charset)
         throws IOException
     {
-        StringBuilder sb = new StringBuilder();
-        BufferedReader br = null;
-    
+        final Charset cs;
         try
         {
-            String line;
-            String lineSep = "";
+            cs = Charset.forName(charset);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new UnsupportedEncodingException(charset);
+        }
+
+        return convertLineSeps(readAll(file.toPath(), cs));
+    }
 
-            br = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(file), charset));
+    /**
+     * Reads an entire text file into memory as a {@link String}, exactly
+     * as it is, including its line endings.
+     *
+     * The file is read into an array presized from the file length, which
+     * is decoded in one pass by {@link String#String(byte[], Charset)}, so
+     * malformed input is replaced with the charset's replacement string.
+     * @exception IOException if the file is larger than an array can be.
+     */
+    public static String readAll(Path path, Charset charset)
+        throws IOException
+    {
+        if (charset == null)
+            throw new IllegalArgumentException("charset is null");
+
+        final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            return new String(readAllBytes(ch, ch.size()), charset);
+        }
+        finally
+        {
+            ch.close();
+        }
+    }
+
+    /**
+     * Reads an entire file into memory. The array is allocated with the
+     * file length up front.
+     */
+    public static byte[] readAllBytes(Path path)
+        throws IOException
+    {
+        final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            return readAllBytes(ch, ch.size());
+        }
+        finally
+        {
+            ch.close();
+        }
+    }
 
-            while ((line = br.readLine()) != null)
+    /**
+     * Reads a channel until the end, expecting it to have a given size.
+     * The file may have changed size since, so the result is trimmed or
+     * grown if necessary.
+     */
+    private static byte[] readAllBytes(FileChannel ch, long size)
+        throws IOException
+    {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IOException("file too large: " + size);
+
+        byte[] b = new byte[(int) size];
+        ByteBuffer bb = ByteBuffer.wrap(b);
+
+        while (true)
+        {
+            while (bb.hasRemaining())
             {
-                sb.append(lineSep);
-                sb.append(line);
-                lineSep = LINE_SEP;
+                if (ch.read(bb) < 0)
+                {
+                    // the file has shrunk
+                    return Arrays.copyOf(b, bb.position());
+                }
             }
 
-            return sb.toString();
+            // the file might have grown
+            final ByteBuffer probe = ByteBuffer.allocate(1);
+            if (ch.read(probe) < 0) return b;
+
+            final int pos = bb.position();
+            if (pos >= Integer.MAX_VALUE - 8)
+                throw new IOException("file too large");
+
+            b = Arrays.copyOf(b,
+                (int) Math.min(Integer.MAX_VALUE - 8, Math.max(pos * 2L, 16)));
+            b[pos] = probe.get(0);
+            bb = ByteBuffer.wrap(b, pos + 1, b.length - pos - 1);
+        }
+    }
+
+    /**
+     * Checks whether a charset maps every ASCII byte to the same char.
+     */
+    private static boolean isAsciiCompatible(Charset cs)
+    {
+        return cs.equals(UTF_8) || cs.equals(US_ASCII)
+            || cs.equals(ISO_8859_1);
+    }
+
+    /**
+     * Converts every line terminator (LF, CR or CRLF) into
+     * {@link #LINE_SEP} and drops the last one.
+     */
+    private static String convertLineSeps(String s)
+    {
+        final int len = s.length();
+        int end = len;
+        if (s.endsWith("\r\n")) end -= 2;
+        else if (s.endsWith("\n") || s.endsWith("\r")) end--;
+
+        if (s.indexOf('\r') < 0
+            && (LINE_SEP.equals("\n") || s.indexOf('\n') < 0))
+        {
+            // common case: nothing to convert
+            return s.substring(0, end);
+        }
+
+        final StringBuilder sb = new StringBuilder(end + end / 16);
+        int start = 0;
+        for (int i = 0; i < end; i++)
+        {
+            final char ch = s.charAt(i);
+            if (ch != '\n' && ch != '\r') continue;
+
+            sb.append(s, start, i);
+            sb.append(LINE_SEP);
+
+            if (ch == '\r' && i + 1 < end && s.charAt(i + 1) == '\n') i++;
+            start = i + 1;
+        }
+
+        sb.append(s, start, end);
+        return sb.toString();
+    }
+
+    /**
+     * Processes the lines of a file in parallel, merging the results of
+     * ranges in file order.
+     * @see #forEachLine(Path, Charset, int, boolean, LineProcessor)
+     */
+    public static <R> R forEachLine(Path path, Charset charset,
+        int parallelism, LineProcessor<R> proc) throws IOException
+    {
+        return forEachLine(path, charset, parallelism, true, proc);
+    }
+
+    /**
+     * Processes the lines of a file in parallel.
+     *
+     * The file is memory-mapped, in segments of less than 2GB, and split
+     * into ranges aligned to line boundaries. The ranges are processed on
+     * a fork-join pool, with the lines of each range numbered from one.
+     * Lines are decoded into a reused buffer, so no String is created per
+     * line. Lines are terminated by LF or CRLF, and the last line need not
+     * be terminated.
+     *
+     * Ranges are split on LF bytes, so the charset must be UTF-8, US-ASCII
+     * or ISO-8859-1, whose multi-byte chars if any never contain one.
+     *
+     * @param parallelism No. of threads processing ranges.
+     * @param ordered If true, results are merged in file order, so that
+     *        merge need not be commutative. If false, results are merged
+     *        as soon as their ranges are done, in any order.
+     * @return The merged result of all ranges. For an empty file,
+     *         returns a new result.
+     * @exception IOException if an I/O error occurs or a line is longer
+     *            than 2GB.
+     * @exception IllegalArgumentException if parallelism is non-positive,
+     *            charset or proc is null, or charset is not supported.
+     */
+    public static <R> R forEachLine(Path path, Charset charset,
+        int parallelism, boolean ordered, LineProcessor<R> proc)
+        throws IOException
+    {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must > 0");
+
+        if (charset == null)
+            throw new IllegalArgumentException("charset is null");
+
+        if (!isAsciiCompatible(charset))
+        {
+            throw new IllegalArgumentException(
+                "charset not supported: " + charset);
+        }
+
+        if (proc == null)
+            throw new IllegalArgumentException("proc is null");
+
+        final FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try
+        {
+            final long fileSize = ch.size();
+            if (fileSize == 0) return proc.newResult();
+
+            final long rangeSize = Math.max(MIN_RANGE_SIZE,
+                Math.min(MAX_RANGE_SIZE, fileSize / (4L * parallelism)));
+            final int numRanges =
+                (int) ((fileSize + rangeSize - 1) / rangeSize);
+
+            final RangeTask<R> task = new RangeTask<R>(ch, fileSize,
+                rangeSize, charset, proc, ordered ? null : new Object[1],
+                0, numRanges);
+
+            final R ret = pool.invoke(task);
+            return (ordered ? ret : task.unorderedResult());
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
         }
         finally
         {
-            if (br != null) br.close();
+            pool.shutdown();
+            ch.close();
+        }
+    }
+
+    /**
+     * Processes the ranges [lo, hi) of a file.
+     */
+    private static final class RangeTask<R> extends RecursiveTask<R>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel ch;
+        private final long fileSize, rangeSize;
+        private final Charset charset;
+        private final LineProcessor<R> proc;
+
+        /** Holds the result merged so far if unordered, or null if
+         * ordered. */
+        private final Object[] shared;
+
+        private final int lo, hi;
+
+        RangeTask(FileChannel ch, long fileSize, long rangeSize,
+            Charset charset, LineProcessor<R> proc, Object[] shared,
+            int lo, int hi)
+        {
+            this.ch = ch;
+            this.fileSize = fileSize;
+            this.rangeSize = rangeSize;
+            this.charset = charset;
+            this.proc = proc;
+            this.shared = shared;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @SuppressWarnings("unchecked")
+        R unorderedResult()
+        {
+            synchronized(this.shared)
+            {
+                return (R) this.shared[0];
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected R compute()
+        {
+            if (this.hi - this.lo > 1)
+            {
+                final int mid = (this.lo + this.hi) >>> 1;
+                final RangeTask<R> left = new RangeTask<R>(this.ch,
+                    this.fileSize, this.rangeSize, this.charset, this.proc,
+                    this.shared, this.lo, mid);
+                final RangeTask<R> right = new RangeTask<R>(this.ch,
+                    this.fileSize, this.rangeSize, this.charset, this.proc,
+                    this.shared, mid, this.hi);
+                invokeAll(left, right);
+
+                if (this.shared != null) return null;
+                return this.proc.merge(left.join(), right.join());
+            }
+
+            final long start = this.lo * this.rangeSize;
+            final long end = Math.min(this.fileSize, start + this.rangeSize);
+            final R result;
+            try
+            {
+                result = processRange(start, end);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+
+            if (this.shared == null) return result;
+
+            synchronized(this.shared)
+            {
+                this.shared[0] = (this.shared[0] == null ? result
+                    : this.proc.merge((R) this.shared[0], result));
+            }
+            return null;
+        }
+
+        /**
+         * Processes the lines starting in [start, end). A line starts at
+         * the beginning of the file or right after an LF.
+         */
+        private R processRange(long start, long end) throws IOException
+        {
+            final R result = this.proc.newResult();
+            final CharsetDecoder dec = this.charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(256);
+            long lineNum = 0;
+
+            // Start one byte early to see whether start begins a line.
+            long pos = Math.max(0, start - 1);
+            boolean skipping = (start > 0);
+            long mapSize = end - pos + RANGE_LOOKAHEAD;
+
+            while (pos < end)
+            {
+                final long mapEnd = Math.min(this.fileSize,
+                    pos + Math.min(mapSize, MAX_MAP_SIZE));
+                final MappedByteBuffer b = this.ch.map(
+                    FileChannel.MapMode.READ_ONLY, pos, mapEnd - pos);
+                final ByteBuffer view = b.duplicate();
+                final int limit = b.limit();
+                final boolean atEof = (mapEnd == this.fileSize);
+
+                int lineStart = 0;
+                int idx = 0;
+                while (pos + lineStart < end)
+                {
+                    while (idx < limit && b.get(idx) != '\n') idx++;
+
+                    if (idx >= limit && !atEof)
+                    {
+                        // the line continues past the mapped bytes
+                        break;
+                    }
+
+                    if (skipping)
+                    {
+                        // the first line belongs to the previous range
+                        skipping = false;
+                    }
+                    else
+                    {
+                        int lineEnd = idx;
+                        if (idx < limit && lineEnd > lineStart
+                            && b.get(lineEnd - 1) == '\r')
+                        {
+                            lineEnd--;
+                        }
+
+                        chars = decode(dec, view, lineStart, lineEnd, chars);
+                        this.proc.processLine(result, ++lineNum, chars);
+                    }
+
+                    if (idx >= limit) return result;
+
+                    idx++;
+                    lineStart = idx;
+                }
+
+                if (pos + lineStart >= end) break;
+
+                if (lineStart == 0)
+                {
+                    // a single line does not fit the mapping
+                    if (mapEnd - pos >= MAX_MAP_SIZE)
+                        throw new IOException("line too long at " + pos);
+
+                    mapSize = (mapEnd - pos) * 2;
+                }
+                else
+                {
+                    mapSize = end - (pos + lineStart) + RANGE_LOOKAHEAD;
+                }
+
+                pos += lineStart;
+            }
+
+            return result;
+        }
+
+        /**
+         * Decodes the bytes [from, to) of a buffer into a reused char
+         * buffer, growing it if necessary.
+         * @param in View of the mapped bytes whose position and limit are
+         *        changed.
+         * @return The char buffer holding the line, flipped for reading.
+         */
+        private static CharBuffer decode(CharsetDecoder dec,
+            ByteBuffer in, int from, int to, CharBuffer chars)
+            throws IOException
+        {
+            in.limit(to);
+            in.position(from);
+
+            final long maxChars = (long) Math.ceil(
+                (to - from) * (double) dec.maxCharsPerByte());
+            if (maxChars > MAX_MAP_SIZE)
+                throw new IOException("line too long to decode");
+
+            if (chars.capacity() < maxChars)
+                chars = CharBuffer.allocate((int) maxChars);
+
+            chars.clear();
+            dec.reset();
+            CoderResult cr = dec.decode(in, chars, true);
+            if (!cr.isUnderflow()) cr.throwException();
+            cr = dec.flush(chars);
+            if (!cr.isUnderflow()) cr.throwException();
+
+            chars.flip();
+            return chars;
         }
     }
-}
\ No newline at end of file
+}
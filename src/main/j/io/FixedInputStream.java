@@ -5,20 +5,29 @@
 package j.io;
 
 import java.io.*;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
  * Represents an input stream with a predetermined size.
  * The size of this input stream is the minimum of
  * a predefined size and the actual size of the underlying stream.
  *
- * This class is thread-safe.
+ * This class is thread-safe, unless it is constructed to be confined to
+ * one thread, in which case no lock is taken on reads.
  */
 public class FixedInputStream extends FilterInputStream
 {
+    /** Initial size of the array of readAllBytes() */
+    private static final int INITIAL_READ_ALL_SIZE = 8192;
+
     /** Number of bytes left in the stream for reading. 
      * Invariant: non-negative */
     private int curLeft;
 
+    /** Whether reads are synchronized */
+    private final boolean threadSafe;
+
     /**
      * @param size if zero, then the end of stream is reached immediately,
      *        and no byte can be read from this stream at all.
@@ -26,6 +35,19 @@ public class FixedInputStream extends FilterInputStream
      *      if inner is null or size is negative
      */
     public FixedInputStream(InputStream inner, int size)
+    {
+        this(inner, size, true);
+    }
+
+    /**
+     * @param size if zero, then the end of stream is reached immediately,
+     *        and no byte can be read from this stream at all.
+     * @param threadSafe if false, this stream must only be used by one
+     *        thread at a time, and reads do not take a lock.
+     * @exception IllegalArgumentException 
+     *      if inner is null or size is negative
+     */
+    public FixedInputStream(InputStream inner, int size, boolean threadSafe)
     {
         super(inner);
 
@@ -36,6 +58,7 @@ public class FixedInputStream extends FilterInputStream
             throw new IllegalArgumentException("size must >= 0");
 
         this.curLeft = size;
+        this.threadSafe = threadSafe;
     }
     
     /**
@@ -96,23 +119,26 @@ public class FixedInputStream extends FilterInputStream
     {
         final InputStream local = getIn();
 
-        int ret = -1;
+        if (!this.threadSafe) return read0(local);
 
         synchronized(this)
         {
-            if (this.curLeft > 0)
-            {
-                ret = local.read();
-                // it is ok to decrement even if ret == -1.
-                // This just means we have prematurely reached
-                // the end of the stream, and curLeft will no longer
-                // be a counter of the number of bytes left.
-                // Future attempts to read from the underlying stream
-                // will just get -1.
-                this.curLeft --;
-            }
+            return read0(local);
         }
+    }
 
+    private int read0(InputStream local) throws IOException
+    {
+        if (this.curLeft <= 0) return -1;
+
+        final int ret = local.read();
+        // it is ok to decrement even if ret == -1.
+        // This just means we have prematurely reached
+        // the end of the stream, and curLeft will no longer
+        // be a counter of the number of bytes left.
+        // Future attempts to read from the underlying stream
+        // will just get -1.
+        this.curLeft --;
         return ret;
     }
     
@@ -122,23 +148,114 @@ public class FixedInputStream extends FilterInputStream
     {
         final InputStream local = getIn();
 
-        int nread = -1;
+        if (!this.threadSafe) return read0(local, b, off, len);
 
         synchronized(this)
         {
-            if (this.curLeft > 0)
+            return read0(local, b, off, len);
+        }
+    }
+
+    private int read0(InputStream local, byte[] b, int off, int len)
+        throws IOException
+    {
+        if (this.curLeft <= 0) return -1;
+
+        // this works even if len <= 0
+        final int toRead = Math.min(len, this.curLeft);
+        final int nread = local.read(b, off, toRead);
+        if (nread >= 0)
+        {
+            this.curLeft -= nread;
+        }
+
+        return nread;
+    }
+
+    /**
+     * Reads bytes until either len bytes are read or the end of this
+     * stream is reached. Each underlying read asks for all the bytes that
+     * are still needed, so as few reads as possible are made.
+     * @return The no. of bytes read, which is less than len only if the
+     *         end of this stream has been reached; or -1 if len is positive
+     *         and the end of this stream has already been reached.
+     * @exception IndexOutOfBoundsException if off or len is out of bounds.
+     */
+    public int readFully(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+
+        final InputStream local = getIn();
+
+        if (!this.threadSafe) return readFully0(local, b, off, len);
+
+        synchronized(this)
+        {
+            return readFully0(local, b, off, len);
+        }
+    }
+
+    private int readFully0(InputStream local, byte[] b, int off, int len)
+        throws IOException
+    {
+        if (len == 0) return 0;
+        if (this.curLeft <= 0) return -1;
+
+        len = Math.min(len, this.curLeft);
+        int done = 0;
+        while (done < len)
+        {
+            final int nread = local.read(b, off + done, len - done);
+            if (nread < 0) break;
+
+            done += nread;
+        }
+
+        this.curLeft -= done;
+        return (done == 0 ? -1 : done);
+    }
+
+    /**
+     * Reads all the remaining bytes into an array. The array starts
+     * small and grows as bytes arrive, up to the remaining length, since
+     * the size of this stream might not be trusted.
+     */
+    @Override
+    public byte[] readAllBytes() throws IOException
+    {
+        final InputStream local = getIn();
+
+        if (!this.threadSafe) return readAllBytes0(local);
+
+        synchronized(this)
+        {
+            return readAllBytes0(local);
+        }
+    }
+
+    private byte[] readAllBytes0(InputStream local) throws IOException
+    {
+        byte[] b = new byte[Math.min(this.curLeft, INITIAL_READ_ALL_SIZE)];
+        int count = 0;
+        while (true)
+        {
+            final int nread = readFully0(local, b, count, b.length - count);
+            if (nread <= 0) break;
+
+            count += nread;
+            if (this.curLeft == 0) break;
+
+            if (count == b.length)
             {
-                // this block works even if len <= 0
-                final int toRead = Math.min(len, this.curLeft);
-                nread = local.read(b, off, toRead);
-                if (nread >= 0)
-                {
-                    this.curLeft -= nread;
-                }
+                // grow by doubling, but never past what is left
+                b = Arrays.copyOf(b, count + Math.min(
+                    Math.max(count, INITIAL_READ_ALL_SIZE), this.curLeft));
             }
         }
 
-        return nread;
+        return (count == b.length ? b : Arrays.copyOf(b, count));
     }
  
     @Override
@@ -146,20 +263,86 @@ public class FixedInputStream extends FilterInputStream
     {
         final InputStream local = getIn();
 
-        long nskip = 0;
-        
+        if (!this.threadSafe) return skip0(local, n);
+
         synchronized(this)
         {
-            // this block works even if n <= 0
-            n = Math.min(n, this.curLeft);
-
-            nskip = local.skip(n);
-            if (nskip >= 0) this.curLeft -= (int)nskip;
+            return skip0(local, n);
         }
+    }
 
+    private long skip0(InputStream local, long n) throws IOException
+    {
+        // this works even if n <= 0
+        n = Math.min(n, this.curLeft);
+
+        final long nskip = local.skip(n);
+        if (nskip >= 0) this.curLeft -= (int)nskip;
         return nskip;
     }
 
+    /**
+     * Transfers the remaining bytes of this stream to an output stream in
+     * large blocks. If the underlying stream is a file and out is a file,
+     * the bytes are not copied through user space.
+     * @return The no. of bytes transferred.
+     * @exception IllegalArgumentException if out is null.
+     */
+    @Override
+    public long transferTo(OutputStream out) throws IOException
+    {
+        if (out == null)
+            throw new IllegalArgumentException("out is null");
+
+        final InputStream local = getIn();
+
+        if (!this.threadSafe) return transfer(local, out);
+
+        synchronized(this)
+        {
+            return transfer(local, out);
+        }
+    }
+
+    private long transfer(InputStream local, OutputStream out)
+        throws IOException
+    {
+        final long n = Transfer.transfer(local, this.curLeft, out);
+        this.curLeft -= (int) n;
+        return n;
+    }
+
+    /**
+     * Transfers the remaining bytes of this stream to a channel in
+     * large blocks. If the underlying stream is a file, the bytes are sent
+     * with {@link java.nio.channels.FileChannel#transferTo}, which does not
+     * copy them through user space.
+     * @return The no. of bytes transferred.
+     * @exception IllegalArgumentException if out is null.
+     */
+    public long transferTo(WritableByteChannel out) throws IOException
+    {
+        if (out == null)
+            throw new IllegalArgumentException("out is null");
+
+        final InputStream local = getIn();
+
+        if (!this.threadSafe) return transfer(local, out);
+
+        synchronized(this)
+        {
+            return transfer(local, out);
+        }
+    }
+
+    private long transfer(InputStream local, WritableByteChannel out)
+        throws IOException
+    {
+        final long n = Transfer.transfer(local, this.curLeft, out);
+        this.curLeft -= (int) n;
+        return n;
+    }
+
     @Override
     public void close() throws IOException
     {
@@ -0,0 +1,37 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a stream reads more data than a configured limit allows,
+ * e.g., a line that is too long. The stream should not be used any more
+ * after this is thrown.
+ */
+public class LimitExceededException extends IOException
+{
+    private static final long serialVersionUID = 3925466420941262851L;
+
+    private final long limit;
+
+    /**
+     * @param msg Description of the limit that has been exceeded.
+     * @param limit Value of the limit.
+     */
+    public LimitExceededException(String msg, long limit)
+    {
+        super(msg + " (limit " + limit + ")");
+        this.limit = limit;
+    }
+
+    /**
+     * Gets the value of the limit that has been exceeded.
+     */
+    public long getLimit()
+    {
+        return this.limit;
+    }
+}
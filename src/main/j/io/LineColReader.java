@@ -7,11 +7,53 @@ import java.io.*;
  * It accepts the following line termination convention: \n, \r and \r\n.
  * However, it will standardize line endings to a single line feed, \n,
  * and will only return a \n to indicate the end of a line.
+ *
+ * Chars are read from the underlying reader in blocks into an internal
+ * buffer, where line endings are standardized in bulk. The line and column
+ * numbers are updated by scanning the chars handed out, so reading an
+ * array costs about the same as copying it.
+ *
+ * For backtracking parsers, {@link #mark()} returns a {@link Position}
+ * which {@link #reset(Position)} goes back to in constant time, as long as
+ * no more than a bounded window of chars has been read since. The chars
+ * between two positions can be viewed with
+ * {@link #getText(Position, Position, CharSlice)} without copying.
  * @author Lucas Tan
  */
 public class LineColReader extends Reader
 {
-    private final PushbackReader in;
+    private static final int DEFAULT_BUF_SIZE = 8192;
+
+    private static final int DEFAULT_WINDOW = 1024;
+
+    private final Reader in;
+
+    /** Buffer of chars with standardized line endings. The first chars
+     * might be kept from before the last fill for resetting to marks. */
+    private final char[] buf;
+
+    /** Min no. of chars before the current one that are kept in the
+     * buffer once mark() has been called */
+    private final int window;
+
+    /** Whether mark() has been called */
+    private boolean marked;
+
+    /** Offset of buf[0] in the text */
+    private long base;
+
+    /** Mark set by mark(int) */
+    private Position readerMark;
+
+    /** Index of the next char to read from the buffer */
+    private int pos;
+
+    /** No. of valid chars in buffer */
+    private int limit;
+
+    /** Whether the last char read from the underlying reader is a \r,
+     * so that a following \n is part of its line ending. */
+    private boolean skipLF;
 
     /** One-based line number of last char read. */
     private int lineNum;
@@ -26,39 +68,183 @@ public class LineColReader extends Reader
      * @exception IllegalArgumentException if in is null
      */
     public LineColReader(Reader in)
+    {
+        this(in, DEFAULT_BUF_SIZE);
+    }
+
+    /**
+     * @param size Size of the internal buffer.
+     * @exception IllegalArgumentException if in is null or size is
+     *            non-positive.
+     */
+    public LineColReader(Reader in, int size)
+    {
+        this(in, size, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param size Size of the internal buffer.
+     * @param window Max no. of chars that can be read after a mark for
+     *        the mark to remain valid.
+     * @exception IllegalArgumentException if in is null, size is
+     *            non-positive or window is negative.
+     */
+    public LineColReader(Reader in, int size, int window)
     {
         if (in == null) throw new IllegalArgumentException("in is null");
 
-        this.in = new PushbackReader(in, 2);
-        this.lineNum = 0; 
-        this.colNum = 0; 
+        if (size <= 0) throw new IllegalArgumentException("size must > 0");
+
+        if (window < 0)
+            throw new IllegalArgumentException("window must >= 0");
+
+        if (size > Integer.MAX_VALUE - window)
+            throw new IllegalArgumentException("size too large");
+
+        this.in = in;
+        this.buf = new char[window + size];
+        this.window = window;
+        this.marked = false;
+        this.base = 0;
+        this.readerMark = null;
+        this.pos = 0;
+        this.limit = 0;
+        this.skipLF = false;
+        this.lineNum = 0;
+        this.colNum = 0;
         this.lineInc = 1;
         this.colInc = 1;
     }
 
     /**
-     * Gets the next character without consuming it, blocking if necessary.
-     * @return The next character if successful; -1 if end of stream has already
-     *         been reached.
+     * Refills the empty buffer, blocking if necessary.
+     * @return false if end of stream has been reached.
      */
-    public int peek() throws IOException
-    {   
-        int ch = this.in.read();
-        
-        if (ch != '\r')
+    private boolean fill() throws IOException
+    {
+        final char[] b = this.buf;
+
+        // Keep the last chars read, so that marks within the window
+        // remain valid.
+        final int keep =
+            (this.marked ? Math.min(this.window, this.limit) : 0);
+        if (keep > 0) System.arraycopy(b, this.limit - keep, b, 0, keep);
+
+        this.base += this.limit - keep;
+        this.pos = keep;
+        this.limit = keep;
+
+        while (true)
         {
-            if (ch >= 0) this.in.unread(ch);
-            return ch;
+            final int n = this.in.read(b, keep, b.length - keep);
+            if (n < 0) return false;
+
+            this.limit = normalize(b, keep, keep + n);
+
+            // might be empty if only the \n of a \r\n was read
+            if (this.limit > keep) return true;
         }
-        
-        int nextCh = this.in.read();
-        if (nextCh >= 0 && nextCh != '\n')
+    }
+
+    /**
+     * Standardizes the line endings of chars read into the buffer.
+     * @return The new end of the chars, which moves back by one for every
+     *         \r\n.
+     */
+    private int normalize(char[] b, int from, int to)
+    {
+        int r = from;
+
+        if (this.skipLF)
         {
-            this.in.unread(nextCh);
+            this.skipLF = false;
+            if (r < to && b[r] == '\n') r++;
         }
 
-        this.in.unread('\n');
-        return '\n';
+        int w = from;
+        while (r < to)
+        {
+            char ch = b[r++];
+            if (ch == '\r')
+            {
+                ch = '\n';
+                if (r >= to) this.skipLF = true;
+                else if (b[r] == '\n') r++;
+            }
+
+            b[w++] = ch;
+        }
+
+        return w;
+    }
+
+    /**
+     * Updates the line and column numbers for the chars [from, to) being
+     * returned by a read method.
+     */
+    private void advance(char[] b, int from, int to)
+    {
+        if (from >= to) return;
+
+        // the first char
+        this.lineNum += this.lineInc;
+        this.colNum += this.colInc;
+
+        // the chars after the first one
+        final int last = to - 1;
+        int lines = 0;
+        int lastLF = -1;
+        for (int i = from; i < last; i++)
+        {
+            if (b[i] == '\n')
+            {
+                lines++;
+                lastLF = i;
+            }
+        }
+
+        if (lines == 0)
+        {
+            this.colNum += last - from;
+        }
+        else
+        {
+            this.lineNum += lines;
+            this.colNum = last - lastLF;
+        }
+
+        // the increments for the char after the last one
+        if (b[last] == '\n')
+        {
+            this.lineInc = 1;
+            this.colInc = 1 - this.colNum;
+        }
+        else
+        {
+            this.lineInc = 0;
+            this.colInc = 1;
+        }
+    }
+
+    /**
+     * Records that end of stream has been reached by a read method.
+     */
+    private void atEnd()
+    {
+        this.lineInc = 0;
+        this.colInc = 1;
+    }
+
+    /**
+     * Gets the next character without consuming it, blocking if necessary.
+     * @return The next character if successful; -1 if end of stream has already
+     *         been reached.
+     */
+    public int peek() throws IOException
+    {
+        if (this.pos >= this.limit && !fill()) return -1;
+
+        return this.buf[this.pos];
     }
 
     /**
@@ -67,7 +253,7 @@ public class LineColReader extends Reader
      * @return The line number if any of the read methods has been called;
      *         0 otherwise.
      */
-    public int getLineNum() 
+    public int getLineNum()
     {
         return this.lineNum;
     }
@@ -78,7 +264,7 @@ public class LineColReader extends Reader
      * @return The column number if any of the read methods has been called;
      *         0 otherwise.
      */
-    public int getColumnNum() 
+    public int getColumnNum()
     {
         return this.colNum;
     }
@@ -86,7 +272,7 @@ public class LineColReader extends Reader
     @Override
     public boolean ready() throws IOException
     {
-        return this.in.ready();
+        return this.pos < this.limit || this.in.ready();
     }
 
     @Override
@@ -109,20 +295,19 @@ public class LineColReader extends Reader
         if (len > Integer.MAX_VALUE - off)
             len = Integer.MAX_VALUE - off;
 
-        int i = off;
-        for (; i < off + len; i++)
-        {
-            int ch = read();
-            if (ch >= 0)
-            {
-                chars[i] = (char)ch;
-                continue;
-            }
+        if (len <= 0) return 0;
 
-            break;
+        if (this.pos >= this.limit && !fill())
+        {
+            atEnd();
+            return -1;
         }
 
-        return i-off;
+        final int n = Math.min(len, this.limit - this.pos);
+        System.arraycopy(this.buf, this.pos, chars, off, n);
+        this.pos += n;
+        advance(chars, off, off + n);
+        return n;
     }
 
     /**
@@ -134,32 +319,190 @@ public class LineColReader extends Reader
     @Override
     public int read() throws IOException
     {
-        int ch = this.in.read();
-        
-        if (ch >= 0) 
+        if (this.pos >= this.limit && !fill())
         {
-            this.lineNum += this.lineInc;
-            this.colNum += this.colInc;
+            atEnd();
+            return -1;
         }
 
-        this.lineInc = 0;
-        this.colInc = 1;
+        final char ch = this.buf[this.pos++];
 
-        if (ch != '\r' && ch != '\n')
-            return ch;
+        this.lineNum += this.lineInc;
+        this.colNum += this.colInc;
 
-        if (ch == '\r')
+        if (ch == '\n')
         {
-            int nextCh = this.in.read();
-            
-            if (nextCh >= 0 && nextCh != '\n')
-                this.in.unread(nextCh);
+            this.lineInc = 1;
+            this.colInc = 1 - this.colNum;
+        }
+        else
+        {
+            this.lineInc = 0;
+            this.colInc = 1;
         }
 
-        this.lineInc = 1;
-        this.colInc = 1 - this.colNum;
+        return ch;
+    }
+
+    /**
+     * Gets the current position, i.e., the position after the char last
+     * read, to be returned to by {@link #reset(Position)}.
+     */
+    public Position mark()
+    {
+        this.marked = true;
+        return new Position(this, this.base + this.pos, this.lineNum,
+            this.colNum, this.lineInc, this.colInc);
+    }
+
+    /**
+     * Goes back (or forward) to a position, restoring the line and column
+     * numbers. This always succeeds if no more chars than the window have
+     * been read since the position was marked.
+     * @exception IOException if the position is no longer buffered.
+     * @exception IllegalArgumentException if the position is null or was
+     *            marked by another reader.
+     */
+    public void reset(Position p) throws IOException
+    {
+        final int idx = indexOf(p);
+
+        this.pos = idx;
+        this.lineNum = p.lineNum;
+        this.colNum = p.colNum;
+        this.lineInc = p.lineInc;
+        this.colInc = p.colInc;
+    }
+
+    /**
+     * Gets the chars between two positions as a view of the internal
+     * buffer, which is only valid until the next read or peek.
+     * @param from Position of the first char.
+     * @param to Position after the last char.
+     * @param reuse Slice to be filled with the chars.
+     * @return reuse.
+     * @exception IOException if a position is no longer buffered.
+     * @exception IllegalArgumentException if an argument is null, a
+     *            position was marked by another reader, or to is before
+     *            from.
+     */
+    public CharSlice getText(Position from, Position to, CharSlice reuse)
+        throws IOException
+    {
+        if (reuse == null)
+            throw new IllegalArgumentException("reuse is null");
+
+        final int start = indexOf(from);
+        final int end = indexOf(to);
+        if (end < start)
+            throw new IllegalArgumentException("to is before from");
+
+        reuse.set(this.buf, start, end - start);
+        return reuse;
+    }
+
+    /**
+     * Gets the index of a position in the buffer.
+     */
+    private int indexOf(Position p) throws IOException
+    {
+        if (p == null)
+            throw new IllegalArgumentException("position is null");
+
+        if (p.reader != this)
+            throw new IllegalArgumentException("position of another reader");
 
-        // standardize line ending to \n
-        return '\n';
+        final long idx = p.offset - this.base;
+        if (idx < 0 || idx > this.limit)
+            throw new IOException("position no longer buffered");
+
+        return (int) idx;
+    }
+
+    /**
+     * @return true.
+     */
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    /**
+     * Marks the current position for {@link #reset()}.
+     * @exception IOException if readAheadLimit is more than the window.
+     */
+    @Override
+    public void mark(int readAheadLimit) throws IOException
+    {
+        if (readAheadLimit > this.window)
+            throw new IOException("readAheadLimit exceeds window");
+
+        this.readerMark = mark();
+    }
+
+    /**
+     * Goes back to the position marked by {@link #mark(int)}.
+     * @exception IOException if not marked or the mark is no longer
+     *            buffered.
+     */
+    @Override
+    public void reset() throws IOException
+    {
+        if (this.readerMark == null) throw new IOException("not marked");
+
+        reset(this.readerMark);
+    }
+
+    /**
+     * A position in the text of a reader, along with its line and column
+     * numbers.
+     */
+    public static final class Position
+    {
+        private final LineColReader reader;
+        private final long offset;
+        private final int lineNum;
+        private final int colNum;
+        private final int lineInc;
+        private final int colInc;
+
+        Position(LineColReader reader, long offset, int lineNum, int colNum,
+            int lineInc, int colInc)
+        {
+            this.reader = reader;
+            this.offset = offset;
+            this.lineNum = lineNum;
+            this.colNum = colNum;
+            this.lineInc = lineInc;
+            this.colInc = colInc;
+        }
+
+        /**
+         * Gets the zero-based offset of the next char in the text, after
+         * line endings are standardized.
+         */
+        public long getOffset()
+        {
+            return this.offset;
+        }
+
+        /**
+         * Gets the line number of the char before this position.
+         * @see LineColReader#getLineNum()
+         */
+        public int getLineNum()
+        {
+            return this.lineNum;
+        }
+
+        /**
+         * Gets the column number of the char before this position.
+         * @see LineColReader#getColumnNum()
+         */
+        public int getColumnNum()
+        {
+            return this.colNum;
+        }
     }
 }
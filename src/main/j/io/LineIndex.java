@@ -0,0 +1,416 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An index of the byte offsets of the lines of a text file, for jumping to
+ * a given line without reading all the lines before it.
+ *
+ * The offset of every k-th line is recorded, where k is the interval of
+ * the index, i.e., the offsets of lines 1, k + 1, 2k + 1 and so on.
+ * {@link #seekToLine(Path, Charset, long)} starts from the closest
+ * recorded line and scans at most k - 1 lines, so its cost does not
+ * depend on the line number.
+ *
+ * Lines are terminated by LF, CR or CRLF like {@link LineReader}, and
+ * line numbers are one-based. The charset of the file must encode CR and
+ * LF as single bytes, as ASCII-compatible charsets do.
+ *
+ * The index is meant for files that only grow, such as logs: after the
+ * file has grown, {@link #update(Path)} indexes only the new bytes. The
+ * index can be saved to a compact side file, which stores the offsets as
+ * variable-length deltas, and loaded again with {@link #load(File)}.
+ *
+ * This class is not thread-safe.
+ */
+public class LineIndex
+{
+    /** Magic number at the start of an index file: "LIX1". */
+    static final int MAGIC = 0x4c495831;
+
+    // Flags of the scan state in an index file
+    private static final int FLAG_AT_LINE_START = 1;
+    private static final int FLAG_PENDING_CR = 2;
+
+    private static final int SCAN_BUF_SIZE = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Every k-th line is recorded. */
+    private final int interval;
+
+    /** offsets[i] is the offset of line i * interval + 1 */
+    private long[] offsets;
+
+    /** No. of valid offsets */
+    private int count;
+
+    /** No. of lines that start before scannedLength */
+    private long numLines;
+
+    /** No. of bytes of the file that have been indexed */
+    private long scannedLength;
+
+    /** Whether the next byte starts a line */
+    private boolean atLineStart;
+
+    /** Whether the last byte scanned is a CR, so that a following LF is
+     * part of its terminator */
+    private boolean pendingCR;
+
+    /**
+     * Constructs an empty index, which indexes a file when
+     * {@link #update(Path)} is called.
+     * @param interval Interval k between recorded lines. A larger interval
+     *        makes a smaller index but a longer scan after each seek.
+     * @exception IllegalArgumentException if interval is non-positive.
+     */
+    public LineIndex(int interval)
+    {
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval must > 0");
+
+        this.interval = interval;
+        this.offsets = new long[INITIAL_CAPACITY];
+        clear();
+    }
+
+    /**
+     * Builds the index of a file.
+     * @see #LineIndex(int)
+     */
+    public static LineIndex build(Path file, int interval)
+        throws IOException
+    {
+        final LineIndex index = new LineIndex(interval);
+        index.update(file);
+        return index;
+    }
+
+    private void clear()
+    {
+        this.count = 0;
+        this.numLines = 0;
+        this.scannedLength = 0;
+        this.atLineStart = true;
+        this.pendingCR = false;
+    }
+
+    public int getInterval()
+    {
+        return this.interval;
+    }
+
+    /**
+     * Gets the number of lines indexed. A last line without a terminator
+     * is counted.
+     */
+    public long getLineCount()
+    {
+        return this.numLines;
+    }
+
+    /**
+     * Gets the number of bytes of the file that have been indexed.
+     */
+    public long getIndexedLength()
+    {
+        return this.scannedLength;
+    }
+
+    /**
+     * Indexes the bytes appended to a file since it was last indexed.
+     * If the file has become shorter, it is assumed to have been replaced
+     * and is indexed again from the start.
+     * @return The number of new lines, which is the number of all lines if
+     *         the file is indexed again.
+     */
+    public long update(Path file) throws IOException
+    {
+        final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            if (ch.size() < this.scannedLength) clear();
+            final long oldLines = this.numLines;
+
+            final ByteBuffer bb = ByteBuffer.allocateDirect(SCAN_BUF_SIZE);
+            long pos = this.scannedLength;
+            while (true)
+            {
+                bb.clear();
+                final int n = ch.read(bb, pos);
+                if (n < 0) break;
+
+                bb.flip();
+                scan(bb, pos);
+                pos += n;
+            }
+
+            this.scannedLength = pos;
+            return this.numLines - oldLines;
+        }
+        finally
+        {
+            ch.close();
+        }
+    }
+
+    /**
+     * Scans the bytes of a buffer, which are at a given offset of the file,
+     * recording the offsets of every k-th line start.
+     */
+    private void scan(ByteBuffer bb, long offset)
+    {
+        final int limit = bb.limit();
+        for (int i = bb.position(); i < limit; i++)
+        {
+            final byte b = bb.get(i);
+
+            if (this.pendingCR)
+            {
+                this.pendingCR = false;
+                // the LF of a CRLF sequence
+                if (b == '\n') continue;
+            }
+
+            if (this.atLineStart)
+            {
+                this.atLineStart = false;
+                if (this.numLines++ % this.interval == 0)
+                    add(offset + i);
+            }
+
+            if (b == '\n')
+            {
+                this.atLineStart = true;
+            }
+            else if (b == '\r')
+            {
+                this.atLineStart = true;
+                this.pendingCR = true;
+            }
+        }
+    }
+
+    private void add(long offset)
+    {
+        if (this.count == this.offsets.length)
+            this.offsets = Arrays.copyOf(this.offsets, this.count * 2);
+
+        this.offsets[this.count++] = offset;
+    }
+
+    /**
+     * Gets the byte offset of the start of a line. The file is read from
+     * the closest recorded line before it.
+     * @param ch Channel of the indexed file. Its position is not changed.
+     * @param lineNum One-based line number.
+     * @exception IllegalArgumentException if lineNum is less than 1 or more
+     *            than the number of lines indexed.
+     */
+    public long getOffset(FileChannel ch, long lineNum) throws IOException
+    {
+        if (lineNum < 1 || lineNum > this.numLines)
+            throw new IllegalArgumentException("lineNum out of bounds");
+
+        final int idx = (int) ((lineNum - 1) / this.interval);
+        long pos = this.offsets[idx];
+        int toSkip = (int) ((lineNum - 1) % this.interval);
+        if (toSkip == 0) return pos;
+
+        // skip lines from the recorded one
+        final ByteBuffer bb = ByteBuffer.allocate(
+            (int) Math.min(SCAN_BUF_SIZE, 16L * toSkip + 64));
+        boolean pendingCR = false;
+        while (true)
+        {
+            bb.clear();
+            final int n = ch.read(bb, pos);
+            if (n < 0) throw new EOFException("file truncated");
+
+            for (int i = 0; i < n; i++)
+            {
+                final byte b = bb.get(i);
+                if (pendingCR)
+                {
+                    pendingCR = false;
+                    if (b == '\n') continue;
+                }
+
+                if (toSkip == 0) return pos + i;
+
+                if (b == '\n')
+                {
+                    toSkip--;
+                }
+                else if (b == '\r')
+                {
+                    toSkip--;
+                    pendingCR = true;
+                }
+            }
+
+            pos += n;
+        }
+    }
+
+    /**
+     * Opens a file for reading from the start of a line.
+     * The returned reader counts lines from lineNum, i.e., its
+     * {@link LineReader#getLineNum()} is lineNum after the first
+     * readLine().
+     * @param lineNum One-based line number.
+     * @exception IllegalArgumentException if lineNum is less than 1 or more
+     *            than the number of lines indexed, or lineNum is too large
+     *            for a LineReader.
+     */
+    public LineReader seekToLine(Path file, Charset charset, long lineNum)
+        throws IOException
+    {
+        if (lineNum > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("lineNum too large");
+
+        final FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            ch.position(getOffset(ch, lineNum));
+            return new LineReader(Channels.newReader(ch, charset.newDecoder(),
+                -1), 8192, (int) lineNum - 1);
+        }
+        catch (IOException e)
+        {
+            ch.close();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Saves this index to a side file, which can be loaded with
+     * {@link #load(File)}. The offsets are stored as deltas in a
+     * variable-length encoding, which takes a byte or two per recorded
+     * line for typical line lengths and intervals.
+     */
+    public void save(File file) throws IOException
+    {
+        final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(this.interval);
+            out.writeLong(this.numLines);
+            out.writeLong(this.scannedLength);
+            out.writeByte((this.atLineStart ? FLAG_AT_LINE_START : 0)
+                | (this.pendingCR ? FLAG_PENDING_CR : 0));
+            out.writeInt(this.count);
+
+            long prev = 0;
+            for (int i = 0; i < this.count; i++)
+            {
+                writeVarLong(out, this.offsets[i] - prev);
+                prev = this.offsets[i];
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads an index saved by {@link #save(File)}.
+     * @exception IOException if the file is not a valid index file.
+     */
+    public static LineIndex load(File file) throws IOException
+    {
+        final DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a line index file");
+
+            final int interval = in.readInt();
+            final long numLines = in.readLong();
+            final long scannedLength = in.readLong();
+            final int flags = in.readByte();
+            final int count = in.readInt();
+
+            if (interval <= 0 || numLines < 0 || scannedLength < 0
+                || count < 0
+                || count != (numLines + interval - 1) / interval)
+            {
+                throw new IOException("corrupt line index file");
+            }
+
+            final LineIndex index = new LineIndex(interval);
+            index.offsets = new long[Math.max(INITIAL_CAPACITY, count)];
+            index.numLines = numLines;
+            index.scannedLength = scannedLength;
+            index.atLineStart = ((flags & FLAG_AT_LINE_START) != 0);
+            index.pendingCR = ((flags & FLAG_PENDING_CR) != 0);
+
+            long prev = 0;
+            for (int i = 0; i < count; i++)
+            {
+                prev += readVarLong(in);
+                if (prev >= scannedLength)
+                    throw new IOException("corrupt line index file");
+
+                index.offsets[i] = prev;
+            }
+            index.count = count;
+
+            return index;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a non-negative long in 7-bit groups, least significant
+     * first, with the high bit of each byte set if more bytes follow.
+     */
+    private static void writeVarLong(DataOutput out, long v)
+        throws IOException
+    {
+        while ((v & ~0x7fL) != 0)
+        {
+            out.writeByte((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException
+    {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            final int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+
+        throw new IOException("malformed varint");
+    }
+}
@@ -5,35 +5,100 @@
 package j.io;
 
 import java.io.*;
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * This stream allows reading of data in the form of lines as well as
  * in bytes from an underlying binary stream.
  *
+ * There is a built-in internal buffering mechanism, so this stream reads
+ * ahead from the underlying stream. Once wrapped, the underlying stream
+ * should only be read through this stream. The buffers are taken from the
+ * default {@link BufferPool} and put back when the stream is closed.
+ *
  * This class is not thread-safe
  */
 public class LineInputStream extends FilterInputStream
 {
-    private final ByteArrayOutputStream bout;
+    private static final int DEFAULT_BUF_SIZE = 8192;
+
+    private static final int DEFAULT_LINE_BUF_SIZE = 128;
+
+    /** Read buffer. Null once closed. */
+    private byte[] buf;
+
+    /** Index of the next byte to read from the buffer */
+    private int pos;
+
+    /** No. of valid bytes in buffer */
+    private int limit;
 
-    /** -1 indicates there is no last byte; else
-     * it will be from 0 to 255. */
-    private int lastByte;
+    /** Holds the part of a line that spans more than one buffer fill.
+     * Reused across lines. */
+    private byte[] lineBuf;
+
+    /** Whether the last line ended with a CR, so that a following LF
+     * is part of its terminator. */
+    private boolean skipLF;
+
+    /** Max no. of bytes in a line, excluding the terminator. */
+    private final int maxLineLength;
+
+    /** Slice used by {@link #readLine()}. */
+    private final LineSlice scratch;
 
     /**
      * @param ist Underlying binary stream.
      * @exception IllegalArgumentException if ist is null
      */
     public LineInputStream(InputStream ist)
+    {
+        this(ist, DEFAULT_BUF_SIZE);
+    }
+
+    /**
+     * @param ist Underlying binary stream.
+     * @param size Size of the internal buffer.
+     * @exception IllegalArgumentException if ist is null or size is
+     *            non-positive.
+     */
+    public LineInputStream(InputStream ist, int size)
+    {
+        this(ist, size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param ist Underlying binary stream.
+     * @param size Min size of the internal buffer.
+     * @param maxLineLength Max no. of bytes in a line, excluding the 
+     *        line terminator. Reading a longer line fails with a
+     *        {@link LimitExceededException} as soon as the limit is passed,
+     *        so the memory used for a line is bounded.
+     * @exception IllegalArgumentException if ist is null, or size or 
+     *            maxLineLength is non-positive.
+     */
+    public LineInputStream(InputStream ist, int size, int maxLineLength)
     {
         super(ist);
 
         if (ist == null)
             throw new IllegalArgumentException("input stream is null");
 
-        this.lastByte = -1;
-        this.bout = new ByteArrayOutputStream();
+        if (size <= 0)
+            throw new IllegalArgumentException("size must > 0");
+
+        if (maxLineLength <= 0)
+            throw new IllegalArgumentException("maxLineLength must > 0");
+
+        this.maxLineLength = maxLineLength;
+
+        this.buf = BufferPool.getDefault().getBytes(size);
+        this.pos = 0;
+        this.limit = 0;
+        this.lineBuf = null;
+        this.skipLF = false;
+        this.scratch = new LineSlice();
     }
 
     /**
@@ -47,73 +112,212 @@ public class LineInputStream extends FilterInputStream
 
     /**
      * Reads bytes starting from the current position until
-     * it is terminated by either a line feed (LF), 
-     * a carriage return (CR), a CRLF sequence or the end-of-stream 
+     * it is terminated by either a line feed (LF),
+     * a carriage return (CR), a CRLF sequence or the end-of-stream
      * condition.
      *
      * The bytes in the line will be interpreted using the UTF-8 charset.
      *
      * @return If end of stream and nothing is read, returns
-     *         null; else returns the line read, 
+     *         null; else returns the line read,
      *         excluding the line terminator.
      *
+     * @exception LimitExceededException if the line is longer than the
+     *            max line length.
      * @exception IOException if the stream is closed or an I/O error occurs.
      */
     public String readLine() throws IOException
     {
+        final LineSlice line = readLine(this.scratch);
+        if (line == null) return null;
+
+        return line.toString();
+    }
+
+    /**
+     * Reads a line like {@link #readLine()}, but without allocating.
+     * The line is returned as a view of the internal buffer, which is only
+     * valid until the next read from this stream.
+     *
+     * @param reuse Slice to be filled with the line.
+     * @return If end of stream and nothing is read, returns
+     *         null; else returns reuse.
+     *
+     * @exception LimitExceededException if the line is longer than the
+     *            max line length.
+     * @exception IOException if the stream is closed or an I/O error occurs.
+     * @exception IllegalArgumentException if reuse is null.
+     */
+    public LineSlice readLine(LineSlice reuse) throws IOException
+    {
+        return readLine(reuse, this.maxLineLength);
+    }
+
+    /**
+     * Gets the max no. of bytes in a line, excluding the line terminator.
+     */
+    public int getMaxLineLength()
+    {
+        return this.maxLineLength;
+    }
+
+    /**
+     * Reads a line with a max length which is tighter than the max line
+     * length of this stream, e.g., to enforce a budget across lines.
+     */
+    LineSlice readLine(LineSlice reuse, int maxLen) throws IOException
+    {
+        if (reuse == null) 
+            throw new IllegalArgumentException("reuse is null");
+
+        maxLen = Math.min(maxLen, this.maxLineLength);
+
         final InputStream localIn = getIn();
 
-        this.bout.reset();
+        skipLF(localIn);
 
-        if (this.lastByte >= 0)
-        {
-            this.bout.write(this.lastByte);
-            this.lastByte = -1;
-        }
+        // No. of bytes of the current line in lineBuf
+        int lineLen = 0;
 
-    loop:
         while(true)
         {
-            final int cur = localIn.read();
-                
-            switch(cur)
+            if (this.pos >= this.limit && !fill(localIn))
             {
-            case '\r':
-                this.lastByte = localIn.read();
-                if (this.lastByte == '\n')
-                    this.lastByte = -1;
-
-                // fall thru
-            case '\n':
-                break;
-                   
-            case -1:
-                if (this.bout.size() > 0)
-                    break;
-                
                 // nothing is read, so return null.
-                return null;
+                if (lineLen == 0) return null;
+
+                reuse.set(this.lineBuf, 0, lineLen);
+                return reuse;
+            }
+
+            final byte[] localBuf = this.buf;
+            final int start = this.pos;
+            final int end = this.limit;
+            int idx = start;
+
+            // scan for the line terminator
+            while (idx < end)
+            {
+                final byte b = localBuf[idx];
+                if (b == '\n' || b == '\r') break;
+                idx++;
+            }
 
-            default:
-                this.bout.write(cur);
-                continue loop;
+            if (idx - start > maxLen - lineLen)
+            {
+                throw new LimitExceededException("line too long",
+                    maxLen);
             }
 
-            final byte[] buf = this.bout.toByteArray();
-            
-            return new String(buf, "UTF-8");
+            if (idx >= end)
+            {
+                // no terminator yet, so keep the partial line
+                lineLen = appendLine(lineLen, localBuf, start, end - start);
+                this.pos = end;
+                continue;
+            }
+
+            if (lineLen == 0)
+            {
+                // common case: the whole line is in the buffer
+                reuse.set(localBuf, start, idx - start);
+            }
+            else
+            {
+                lineLen = appendLine(lineLen, localBuf, start, idx - start);
+                reuse.set(this.lineBuf, 0, lineLen);
+            }
+
+            this.pos = idx + 1;
+
+            // The LF of a CRLF sequence is skipped by the next read, which
+            // keeps the returned slice valid and does not block now.
+            this.skipLF = (localBuf[idx] == '\r');
+
+            return reuse;
         } // while
     } // method
 
+    /**
+     * Skips the LF of a CRLF sequence if the last line ended with a CR.
+     */
+    private void skipLF(InputStream localIn) throws IOException
+    {
+        if (!this.skipLF) return;
+
+        this.skipLF = false;
+        if ((this.pos < this.limit || fill(localIn))
+            && this.buf[this.pos] == '\n')
+        {
+            this.pos++;
+        }
+    }
+
+    /**
+     * Appends bytes to the partial line buffer, growing it if necessary.
+     * @return The new length of the partial line.
+     */
+    private int appendLine(int lineLen, byte[] b, int off, int len)
+    {
+        byte[] local = this.lineBuf;
+        if (local == null || len > local.length - lineLen)
+        {
+            int newLen = (local == null ? DEFAULT_LINE_BUF_SIZE : local.length);
+            while (newLen - lineLen < len)
+            {
+                if (newLen > Integer.MAX_VALUE / 2)
+                {
+                    newLen = Integer.MAX_VALUE - 8;
+                    break;
+                }
+                newLen <<= 1;
+            }
+
+            final BufferPool pool = BufferPool.getDefault();
+            final byte[] tmp = pool.getBytes(newLen);
+            if (local != null)
+            {
+                System.arraycopy(local, 0, tmp, 0, lineLen);
+                pool.put(local);
+            }
+            this.lineBuf = local = tmp;
+        }
+
+        System.arraycopy(b, off, local, lineLen, len);
+        return lineLen + len;
+    }
+
+    /**
+     * Refills the empty buffer, blocking if necessary.
+     * @return false if end of stream has been reached.
+     */
+    private boolean fill(InputStream localIn) throws IOException
+    {
+        this.pos = 0;
+        this.limit = 0;
+
+        int n;
+        do
+        {
+            n = localIn.read(this.buf, 0, this.buf.length);
+        }
+        while (n == 0);
+
+        if (n < 0) return false;
+
+        this.limit = n;
+        return true;
+    }
+
     /**
      * Does nothing since not supported.
      */
     @Override
-    public void mark(int k) 
+    public void mark(int k)
     {
         // nothing
     }
-    
+
     /**
      * @exception IOException always thrown since not supported.
      */
@@ -129,16 +333,26 @@ public class LineInputStream extends FilterInputStream
     {
         final InputStream localIn = getIn();
 
-        if (this.lastByte < 0 || len <= 0)
+        if (len <= 0) return 0;
+
+        skipLF(localIn);
+
+        int avail = this.limit - this.pos;
+        if (avail <= 0)
         {
-            return localIn.read(b, off, len);
+            // Reads directly to caller's array if it is at least as
+            // large as the buffer.
+            if (len >= this.buf.length)
+                return localIn.read(b, off, len);
+
+            if (!fill(localIn)) return -1;
+            avail = this.limit;
         }
 
-        b[off] = (byte)(this.lastByte & 255);
-        this.lastByte = -1;
-        final int read = localIn.read(b, off+1, len-1);
-        if (read >= 0) return read+1;
-        return 1;
+        final int n = Math.min(avail, len);
+        System.arraycopy(this.buf, this.pos, b, off, n);
+        this.pos += n;
+        return n;
     }
 
     @Override
@@ -146,12 +360,27 @@ public class LineInputStream extends FilterInputStream
     {
         final InputStream localIn = getIn();
 
-        if (this.lastByte < 0)
-            return localIn.read();
+        skipLF(localIn);
+
+        if (this.pos >= this.limit && !fill(localIn))
+            return -1;
 
-        final int ret = this.lastByte;
-        this.lastByte = -1;
-        return ret;
+        return this.buf[this.pos++] & 255;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        final InputStream localIn = getIn();
+
+        int avail = this.limit - this.pos;
+
+        // a pending LF is not counted if it is known
+        if (this.skipLF && avail > 0 && this.buf[this.pos] == '\n')
+            avail--;
+
+        return (int) Math.min(Integer.MAX_VALUE,
+            (long) avail + localIn.available());
     }
 
     private InputStream getIn() throws IOException
@@ -168,15 +397,61 @@ public class LineInputStream extends FilterInputStream
     {
         final InputStream localIn = getIn();
 
-        if (this.lastByte < 0 || n <= 0)
-        {
+        if (n <= 0) return 0;
+
+        skipLF(localIn);
+
+        final int avail = this.limit - this.pos;
+        if (avail <= 0)
             return localIn.skip(n);
+
+        final int nskip = (int) Math.min(avail, n);
+        this.pos += nskip;
+        return nskip;
+    }
+
+    /**
+     * Transfers up to count bytes to a channel, starting with the buffered
+     * bytes.
+     * @return The no. of bytes transferred, which is less than count only
+     *         if the end of stream has been reached.
+     */
+    long transferTo(long count, WritableByteChannel out) throws IOException
+    {
+        final InputStream localIn = getIn();
+
+        skipLF(localIn);
+
+        final int n = (int) Math.min(this.limit - this.pos, count);
+        if (n > 0)
+        {
+            Transfer.writeFully(ByteBuffer.wrap(this.buf, this.pos, n), out);
+            this.pos += n;
         }
 
-        this.lastByte = -1;
-        final long nskip = localIn.skip(n-1);
-        if (nskip >= 0) return nskip+1;
-        return 1;
+        return n + Transfer.transfer(localIn, count - n, out);
+    }
+
+    /**
+     * Transfers up to count bytes to a stream, starting with the buffered
+     * bytes.
+     * @return The no. of bytes transferred, which is less than count only
+     *         if the end of stream has been reached.
+     */
+    long transferTo(long count, OutputStream out) throws IOException
+    {
+        final InputStream localIn = getIn();
+
+        skipLF(localIn);
+
+        final int n = (int) Math.min(this.limit - this.pos, count);
+        if (n > 0)
+        {
+            out.write(this.buf, this.pos, n);
+            this.pos += n;
+        }
+
+        return n + Transfer.transfer(localIn, count - n, out);
     }
 
     @Override
@@ -190,6 +465,16 @@ public class LineInputStream extends FilterInputStream
 
         localIn.close();
         this.in = null;
+        this.pos = 0;
+        this.limit = 0;
+
+        final BufferPool pool = BufferPool.getDefault();
+        pool.put(this.buf);
+        this.buf = null;
+        if (this.lineBuf != null)
+        {
+            pool.put(this.lineBuf);
+            this.lineBuf = null;
+        }
     }
 }
-
@@ -0,0 +1,41 @@
+package j.io;
+
+/**
+ * Processes the lines of a file in ranges, possibly in parallel, and
+ * combines the result of every range into one, as done by
+ * {@link FileUtil#forEachLine(java.nio.file.Path,
+ * java.nio.charset.Charset, int, boolean, LineProcessor)}.
+ *
+ * The lines of one range are processed by one thread in order, while
+ * different ranges can be processed concurrently. Hence the result of a
+ * range does not need to be thread-safe, but anything shared across
+ * ranges does.
+ * @param <R> Type of the result of a range.
+ * @author Lucas Tan
+ */
+public interface LineProcessor<R>
+{
+    /**
+     * Creates the result of a range before any of its lines is processed.
+     */
+    R newResult();
+
+    /**
+     * Processes a line of a range.
+     * @param result Result of the range.
+     * @param lineNum One-based number of the line within its range.
+     * @param line The line, excluding the line terminator. It is only valid
+     *        during this call.
+     */
+    void processLine(R result, long lineNum, CharSequence line);
+
+    /**
+     * Combines the results of two ranges.
+     * @param left A result. If results are merged in order, its lines are
+     *        before those of right.
+     * @param right Another result.
+     * @return The combined result, which can be left or right updated
+     *         in place.
+     */
+    R merge(R left, R right);
+}
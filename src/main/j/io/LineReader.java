@@ -8,37 +8,187 @@ import java.io.*;
  * ability to keep track of the current line number.
  * In order for the class to accurately keep track of the line number,
  * callers must not use the read, skip, reset and mark methods.
+ *
+ * Lines can also be read without allocation using
+ * {@link #readLine(CharSlice)}.
  * @author Lucas Tan
  */
 public class LineReader extends BufferedReader
 {
+    private static final int DEFAULT_SLICE_BUF_SIZE = 8192;
+
     private int lineNum;
 
+    /** Buffer used by readLine(CharSlice). Chars are read into it from
+     * the BufferedReader in bulk. Allocated on first use. */
+    private char[] sliceBuf;
+
+    /** Index of the next char to read from sliceBuf */
+    private int slicePos;
+
+    /** No. of valid chars in sliceBuf */
+    private int sliceLimit;
+
+    /** Whether the last line read through sliceBuf ended with a CR,
+     * so that a following LF is part of its terminator. */
+    private boolean skipLF;
+
+    private final int sliceBufSize;
+
     public LineReader(Reader r)
     {
         super(r);
         this.lineNum = 0;
+        this.sliceBufSize = DEFAULT_SLICE_BUF_SIZE;
     }
 
     public LineReader(Reader r, int bufSize)
+    {
+        this(r, bufSize, 0);
+    }
+
+    /**
+     * Constructs a reader that starts in the middle of a text, e.g., after
+     * a seek.
+     * @param lineNum Number of lines before the first line to be read.
+     * @exception IllegalArgumentException if lineNum is negative or
+     *            bufSize is non-positive.
+     */
+    public LineReader(Reader r, int bufSize, int lineNum)
     {
         super(r, bufSize);
-        this.lineNum = 0;
+
+        if (lineNum < 0)
+            throw new IllegalArgumentException("lineNum must >= 0");
+
+        this.lineNum = lineNum;
+        this.sliceBufSize = bufSize;
     }
 
     @Override
     public String readLine()
         throws IOException
     {
+        // Chars might have been read ahead by readLine(CharSlice),
+        // in which case they must be consumed first.
+        if (this.slicePos < this.sliceLimit || this.skipLF)
+        {
+            final CharSlice line = readLine(new CharSlice());
+            return (line == null ? null : line.toString());
+        }
+
         String s = super.readLine();
         if (s != null) this.lineNum++;
         return s;
     }
 
+    /**
+     * Reads a line like {@link #readLine()}, but without allocating
+     * a String. The line is returned as a view of an internal buffer, which
+     * is only valid until the next read from this reader.
+     * @param reuse Slice to be filled with the line.
+     * @return null if end of stream has been reached; otherwise reuse.
+     * @exception IllegalArgumentException if reuse is null.
+     */
+    public CharSlice readLine(CharSlice reuse)
+        throws IOException
+    {
+        if (reuse == null)
+            throw new IllegalArgumentException("reuse is null");
+
+        if (this.sliceBuf == null)
+            this.sliceBuf = new char[this.sliceBufSize];
+
+        if (this.skipLF)
+        {
+            this.skipLF = false;
+            if ((this.slicePos < this.sliceLimit || fill(0))
+                && this.sliceBuf[this.slicePos] == '\n')
+            {
+                this.slicePos++;
+            }
+        }
+
+        int start = this.slicePos;
+        int idx = start;
+
+        while (true)
+        {
+            if (idx >= this.sliceLimit)
+            {
+                // Keep the partial line at the front of the buffer.
+                final int lineLen = idx - start;
+                if (start > 0)
+                {
+                    System.arraycopy(this.sliceBuf, start, this.sliceBuf, 0,
+                        lineLen);
+                }
+                else if (lineLen == this.sliceBuf.length)
+                {
+                    char[] tmp = new char[lineLen * 2];
+                    System.arraycopy(this.sliceBuf, 0, tmp, 0, lineLen);
+                    this.sliceBuf = tmp;
+                }
+
+                start = 0;
+                idx = lineLen;
+
+                if (!fill(lineLen))
+                {
+                    this.slicePos = this.sliceLimit;
+                    if (lineLen == 0) return null;
+
+                    this.lineNum++;
+                    reuse.set(this.sliceBuf, 0, lineLen);
+                    return reuse;
+                }
+            }
+
+            final char ch = this.sliceBuf[idx];
+            if (ch == '\n' || ch == '\r')
+            {
+                this.skipLF = (ch == '\r');
+                this.slicePos = idx + 1;
+                this.lineNum++;
+                reuse.set(this.sliceBuf, start, idx - start);
+                return reuse;
+            }
+
+            idx++;
+        }
+    }
+
+    /**
+     * Reads more chars into sliceBuf after the first count chars.
+     * @return false if end of stream has been reached.
+     */
+    private boolean fill(int count) throws IOException
+    {
+        this.slicePos = count;
+        this.sliceLimit = count;
+
+        int n;
+        do
+        {
+            n = super.read(this.sliceBuf, count, this.sliceBuf.length - count);
+        }
+        while (n == 0);
+
+        if (n < 0) return false;
+
+        this.sliceLimit = count + n;
+        return true;
+    }
+
+    @Override
+    public boolean ready() throws IOException
+    {
+        return this.slicePos < this.sliceLimit || super.ready();
+    }
+
     /** Gets the one-based line number of the line last returned by
      *  readLine()
      *  @return the line number if readLine() has been called; 0 otherwise.
      */
     public int getLineNum(){ return this.lineNum; }
 }
-
@@ -0,0 +1,164 @@
+package j.io;
+
+import java.nio.charset.Charset;
+
+/**
+ * A reusable view of a line of UTF-8 bytes held in another object's
+ * buffer, such as the one returned by
+ * {@link LineInputStream#readLine(LineSlice)}.
+ *
+ * The raw bytes are available through {@link #getArray()},
+ * {@link #getOffset()} and {@link #getLength()}. The view is also a
+ * {@link CharSequence}, which is decoded lazily: ASCII lines are accessed
+ * directly from the bytes, while other lines are decoded into a String on
+ * first use.
+ *
+ * The content of a slice is only valid until the next read from the
+ * object that filled it. Use {@link #toString()} to keep a copy.
+ *
+ * This class is not thread-safe.
+ * @author Lucas Tan
+ */
+public final class LineSlice implements CharSequence
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    // Some values for ascii
+    private static final int ASCII_UNKNOWN = -1;
+    private static final int ASCII_NO = 0;
+    private static final int ASCII_YES = 1;
+
+    private byte[] array;
+
+    private int offset;
+
+    private int length;
+
+    /** Whether all bytes are ASCII. */
+    private int ascii;
+
+    /** Decoded content, or null if not decoded yet. */
+    private String decoded;
+
+    /**
+     * Constructs an empty slice.
+     */
+    public LineSlice()
+    {
+        set(new byte[0], 0, 0);
+    }
+
+    /**
+     * Points this slice at a range of bytes. The bytes are not copied.
+     */
+    void set(byte[] array, int offset, int length)
+    {
+        this.array = array;
+        this.offset = offset;
+        this.length = length;
+        this.ascii = ASCII_UNKNOWN;
+        this.decoded = null;
+    }
+
+    /**
+     * Gets the array holding the bytes of the line. 
+     * It must not be modified.
+     */
+    public byte[] getArray()
+    {
+        return this.array;
+    }
+
+    /**
+     * Gets the index of the first byte of the line in the array.
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * Gets the number of bytes in the line, excluding the line terminator.
+     */
+    public int getLength()
+    {
+        return this.length;
+    }
+
+    /**
+     * Gets a byte of the line.
+     * @param idx Zero-based index relative to the start of the line.
+     * @exception IndexOutOfBoundsException if idx is out of bounds.
+     */
+    public byte byteAt(int idx)
+    {
+        if (idx < 0 || idx >= this.length)
+            throw new IndexOutOfBoundsException("idx out of bounds");
+
+        return this.array[this.offset + idx];
+    }
+
+    /**
+     * Checks whether all the bytes of the line are ASCII, in which case
+     * every byte is a char.
+     */
+    public boolean isAscii()
+    {
+        if (this.ascii == ASCII_UNKNOWN)
+        {
+            this.ascii = ASCII_YES;
+
+            final int end = this.offset + this.length;
+            for (int i = this.offset; i < end; i++)
+            {
+                if (this.array[i] < 0)
+                {
+                    this.ascii = ASCII_NO;
+                    break;
+                }
+            }
+        }
+
+        return this.ascii == ASCII_YES;
+    }
+
+    @Override
+    public int length()
+    {
+        if (isAscii()) return this.length;
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int idx)
+    {
+        if (isAscii())
+            return (char) byteAt(idx);
+
+        return toString().charAt(idx);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * Decodes the line as UTF-8. The result is cached until this slice is
+     * filled again.
+     */
+    @Override
+    public String toString()
+    {
+        if (this.decoded == null)
+        {
+            this.decoded = new String(this.array, this.offset, this.length,
+                isAscii() ? ISO_8859_1 : UTF_8);
+        }
+
+        return this.decoded;
+    }
+}
@@ -0,0 +1,104 @@
+package j.io;
+
+import java.io.*;
+
+/**
+ * An input stream that records the reads and skips of the underlying
+ * stream in a {@link StreamMeter}: the no. of calls, the bytes read, the
+ * time blocked, and the no. of bytes returned per call.
+ *
+ * Stacked streams can be metered at any level. For example, metering the
+ * socket stream under a {@link ChunkedInputStream} shows how the peer
+ * delivers the data, while metering the ChunkedInputStream shows how
+ * the application consumes it.
+ *
+ * Only the clock is read and a few counters updated per call, so the
+ * overhead is small next to that of a read on a real stream.
+ * @author Lucas Tan
+ */
+public class MeteredInputStream extends FilterInputStream
+{
+    private final StreamMeter meter;
+
+    /**
+     * Constructs a stream with its own meter, which has no latency
+     * histogram.
+     * @exception IllegalArgumentException if in is null.
+     */
+    public MeteredInputStream(InputStream in)
+    {
+        this(in, new StreamMeter());
+    }
+
+    /**
+     * @param meter Meter to record the calls in. It can be shared with
+     *        other streams.
+     * @exception IllegalArgumentException if in or meter is null.
+     */
+    public MeteredInputStream(InputStream in, StreamMeter meter)
+    {
+        super(in);
+
+        if (in == null) throw new IllegalArgumentException("in is null");
+
+        if (meter == null)
+            throw new IllegalArgumentException("meter is null");
+
+        this.meter = meter;
+    }
+
+    public StreamMeter getMeter()
+    {
+        return this.meter;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        final long start = System.nanoTime();
+        int n = 0;
+        try
+        {
+            final int b = this.in.read();
+            if (b >= 0) n = 1;
+            return b;
+        }
+        finally
+        {
+            this.meter.record(n, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        final long start = System.nanoTime();
+        int n = 0;
+        try
+        {
+            final int r = this.in.read(b, off, len);
+            if (r > 0) n = r;
+            return r;
+        }
+        finally
+        {
+            this.meter.record(n, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long skip(long count) throws IOException
+    {
+        final long start = System.nanoTime();
+        long n = 0;
+        try
+        {
+            n = Math.max(0, this.in.skip(count));
+            return n;
+        }
+        finally
+        {
+            this.meter.record(n, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.*;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An input stream that reads ahead from the underlying stream on a
+ * background thread, so that the latency of slow storage such as a
+ * network file system overlaps with the processing of the data.
+ *
+ * The background thread reads into a ring of blocks, up to a given depth
+ * ahead of the consumer: a depth of 2 is double buffering, where one block
+ * is filled while the other is read. Each block holds what one read of the
+ * underlying stream returns. The blocks are handed over through two
+ * counters, each written by one side only, so no lock is taken; a thread
+ * only parks when the ring is empty or full.
+ *
+ * Errors of the underlying stream are thrown by the read that reaches
+ * them. Closing this stream stops the background thread and closes the
+ * underlying stream. The blocks are taken from the default
+ * {@link BufferPool} and put back once both sides are done with them.
+ *
+ * This class is not thread-safe: there must be one consumer at a time.
+ */
+public class PrefetchInputStream extends InputStream
+{
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_DEPTH = 2;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /** Creates daemon threads, so that a stream which is not closed does
+     * not keep the JVM alive. */
+    private static final ThreadFactory DAEMON_FACTORY = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            final Thread t = new Thread(r,
+                "prefetch-" + THREAD_COUNT.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private final InputStream in;
+
+    private final byte[][] blocks;
+
+    /** No. of valid bytes of each block, or -1 at end of stream */
+    private final int[] lengths;
+
+    private final Thread producer;
+
+    /** No. of blocks filled. Only written by the producer. */
+    private volatile long filled;
+
+    /** No. of blocks released by the consumer. Only written by the
+     * consumer. */
+    private volatile long consumed;
+
+    private volatile boolean producerWaiting;
+    private volatile boolean consumerWaiting;
+    private volatile Thread consumer;
+
+    private volatile boolean closed;
+
+    /** Error of the underlying stream, which ends the stream */
+    private volatile IOException error;
+
+    /** No. of sides, out of producer and consumer, that still use the
+     * blocks */
+    private final AtomicInteger users;
+
+    /** Block being read, or null if none */
+    private byte[] cur;
+
+    /** Index of the next byte to read from the current block */
+    private int pos;
+
+    /** No. of valid bytes in the current block */
+    private int limit;
+
+    /** Whether the end of stream has been reached */
+    private boolean eof;
+
+    /**
+     * Constructs a stream with two blocks of 64K, read by a daemon thread.
+     * @exception IllegalArgumentException if in is null.
+     */
+    public PrefetchInputStream(InputStream in)
+    {
+        this(in, DEFAULT_BLOCK_SIZE, DEFAULT_DEPTH, DAEMON_FACTORY);
+    }
+
+    /**
+     * @param blockSize Min size of a block, which is the max no. of bytes
+     *        read from the underlying stream at a time.
+     * @param depth No. of blocks, which is the max no. of blocks read
+     *        ahead, including the one being consumed.
+     * @exception IllegalArgumentException if in is null, blockSize is
+     *            non-positive or depth is less than 2.
+     */
+    public PrefetchInputStream(InputStream in, int blockSize, int depth)
+    {
+        this(in, blockSize, depth, DAEMON_FACTORY);
+    }
+
+    /**
+     * @param blockSize Min size of a block, which is the max no. of bytes
+     *        read from the underlying stream at a time.
+     * @param depth No. of blocks, which is the max no. of blocks read
+     *        ahead, including the one being consumed.
+     * @param factory Creates the thread that reads the underlying stream.
+     * @exception IllegalArgumentException if in or factory is null,
+     *            blockSize is non-positive or depth is less than 2.
+     */
+    public PrefetchInputStream(InputStream in, int blockSize, int depth,
+        ThreadFactory factory)
+    {
+        if (in == null) throw new IllegalArgumentException("in is null");
+
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("blockSize must > 0");
+
+        if (depth < 2) throw new IllegalArgumentException("depth must >= 2");
+
+        if (factory == null)
+            throw new IllegalArgumentException("factory is null");
+
+        this.in = in;
+        this.blocks = new byte[depth][];
+        for (int i = 0; i < depth; i++)
+            this.blocks[i] = BufferPool.getDefault().getBytes(blockSize);
+
+        this.lengths = new int[depth];
+        this.users = new AtomicInteger(2);
+        this.cur = null;
+        this.pos = 0;
+        this.limit = 0;
+        this.eof = false;
+
+        this.producer = factory.newThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                produce();
+            }
+        });
+
+        if (this.producer == null)
+        {
+            release(false);
+            release(false);
+            throw new IllegalStateException("factory made no thread");
+        }
+
+        this.producer.start();
+    }
+
+    /**
+     * Reads the underlying stream into the blocks until end of stream,
+     * an error, or this stream is closed.
+     */
+    private void produce()
+    {
+        final int depth = this.blocks.length;
+        try
+        {
+            while (true)
+            {
+                // wait for a free block
+                while (this.filled - this.consumed >= depth && !this.closed)
+                {
+                    this.producerWaiting = true;
+                    if (this.filled - this.consumed >= depth && !this.closed)
+                        LockSupport.park(this);
+                    this.producerWaiting = false;
+                }
+
+                if (this.closed) return;
+
+                final int idx = (int) (this.filled % depth);
+                final byte[] b = this.blocks[idx];
+                int n;
+                try
+                {
+                    do
+                    {
+                        n = this.in.read(b, 0, b.length);
+                    }
+                    while (n == 0);
+                }
+                catch (IOException e)
+                {
+                    this.error = e;
+                    n = -1;
+                }
+                catch (RuntimeException e)
+                {
+                    this.error = new IOException(e);
+                    n = -1;
+                }
+
+                // the volatile write of filled publishes the block
+                this.lengths[idx] = n;
+                this.filled = this.filled + 1;
+                if (this.consumerWaiting)
+                    LockSupport.unpark(this.consumer);
+
+                if (n < 0) return;
+            }
+        }
+        finally
+        {
+            release(true);
+        }
+    }
+
+    /**
+     * Called by each side when it stops using the blocks. The last one
+     * puts them back to the pool.
+     * @param producer Whether called by the background thread, which is
+     *        about to exit, so the blocks must not go to its own cache.
+     */
+    private void release(boolean producer)
+    {
+        if (this.users.decrementAndGet() != 0) return;
+
+        final BufferPool pool = BufferPool.getDefault();
+        for (byte[] b : this.blocks)
+        {
+            if (producer) pool.putShared(b);
+            else pool.put(b);
+        }
+    }
+
+    private void checkClose() throws IOException
+    {
+        if (this.closed) throw new IOException("stream closed");
+    }
+
+    /**
+     * Moves to the next block, waiting for it if necessary.
+     * @return false if end of stream has been reached.
+     */
+    private boolean nextBlock() throws IOException
+    {
+        if (this.eof)
+        {
+            if (this.error != null) throw this.error;
+            return false;
+        }
+
+        if (this.cur != null)
+        {
+            // hand the block back to the producer
+            this.cur = null;
+            this.consumed = this.consumed + 1;
+            if (this.producerWaiting) LockSupport.unpark(this.producer);
+        }
+
+        final long next = this.consumed;
+        while (this.filled == next)
+        {
+            this.consumer = Thread.currentThread();
+            this.consumerWaiting = true;
+            if (this.filled == next) LockSupport.park(this);
+            this.consumerWaiting = false;
+
+            // keep the interrupt status for the caller to see
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("interrupted");
+        }
+
+        final int idx = (int) (next % this.blocks.length);
+        final int n = this.lengths[idx];
+        if (n < 0)
+        {
+            this.eof = true;
+            if (this.error != null) throw this.error;
+            return false;
+        }
+
+        this.cur = this.blocks[idx];
+        this.pos = 0;
+        this.limit = n;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        checkClose();
+
+        if (this.pos >= this.limit && !nextBlock()) return -1;
+
+        return this.cur[this.pos++] & 255;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        checkClose();
+
+        if (len == 0) return 0;
+
+        if (this.pos >= this.limit && !nextBlock()) return -1;
+
+        final int n = Math.min(len, this.limit - this.pos);
+        System.arraycopy(this.cur, this.pos, b, off, n);
+        this.pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        checkClose();
+
+        if (n <= 0) return 0;
+
+        long left = n;
+        while (left > 0)
+        {
+            if (this.pos >= this.limit && !nextBlock()) break;
+
+            final int k = (int) Math.min(left, this.limit - this.pos);
+            this.pos += k;
+            left -= k;
+        }
+
+        return n - left;
+    }
+
+    /**
+     * Gets the no. of bytes left in the current block.
+     */
+    @Override
+    public int available() throws IOException
+    {
+        checkClose();
+
+        return this.limit - this.pos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (this.closed) return;
+
+        this.closed = true;
+        this.cur = null;
+        this.pos = 0;
+        this.limit = 0;
+        LockSupport.unpark(this.producer);
+
+        try
+        {
+            // also wakes up the producer if it is blocked in a read
+            this.in.close();
+        }
+        finally
+        {
+            release(false);
+        }
+    }
+}
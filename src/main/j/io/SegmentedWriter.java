@@ -0,0 +1,479 @@
+package j.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+import java.util.ArrayList;
+
+/**
+ * A writer that keeps what is written in memory like
+ * {@link StringBuilderWriter}, but in a list of fixed-size segments
+ * instead of one growing array. Appending never copies what has already
+ * been written, and the content never needs one contiguous array, so
+ * very large documents can be built with little more memory than their
+ * size.
+ *
+ * The content can be accessed as a {@link CharSequence}, by this writer
+ * itself, or through {@link #getReader()}, and can be streamed with
+ * {@link #writeTo(Writer)} or {@link #writeTo(OutputStream, Charset)},
+ * without being copied into a String.
+ *
+ * This class is not thread-safe.
+ * @author Lucas Tan
+ */
+public class SegmentedWriter extends Writer implements CharSequence
+{
+    private static final int DEFAULT_SEGMENT_SIZE = 8192;
+
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    /** Size of the byte buffer used by writeTo(OutputStream, Charset) */
+    private static final int ENCODE_BUF_SIZE = 8192;
+
+    private final ArrayList<char[]> segments;
+
+    /** log2 of the segment size */
+    private final int shift;
+
+    /** Segment size - 1 */
+    private final int mask;
+
+    /** Segment being appended to */
+    private char[] cur;
+
+    /** No. of chars in the current segment */
+    private int curLen;
+
+    /** Total no. of chars */
+    private long size;
+
+    public SegmentedWriter()
+    {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize Min no. of chars in each segment. It is rounded
+     *        up to a power of two.
+     * @exception IllegalArgumentException if segmentSize is non-positive
+     *            or more than 2^30.
+     */
+    public SegmentedWriter(int segmentSize)
+    {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("segmentSize must > 0");
+
+        if (segmentSize > MAX_SEGMENT_SIZE)
+            throw new IllegalArgumentException("segmentSize too large");
+
+        this.shift = 32 - Integer.numberOfLeadingZeros(segmentSize - 1);
+        this.mask = (1 << this.shift) - 1;
+        this.segments = new ArrayList<char[]>();
+        clear();
+    }
+
+    /**
+     * Discards the content.
+     */
+    public void clear()
+    {
+        this.segments.clear();
+        this.cur = new char[this.mask + 1];
+        this.segments.add(this.cur);
+        this.curLen = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Gets the no. of chars written, which can be more than
+     * {@link #length()} can return.
+     */
+    public long size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Gets a free segment to append to.
+     */
+    private char[] nextSegment()
+    {
+        if (this.curLen == this.cur.length)
+        {
+            this.cur = new char[this.mask + 1];
+            this.segments.add(this.cur);
+            this.curLen = 0;
+        }
+
+        return this.cur;
+    }
+
+    @Override
+    public void write(int c)
+    {
+        nextSegment()[this.curLen++] = (char) c;
+        this.size++;
+    }
+
+    @Override
+    public void write(char[] c, int off, int len)
+    {
+        if ((off | len | (c.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        while (len > 0)
+        {
+            final char[] seg = nextSegment();
+            final int n = Math.min(len, seg.length - this.curLen);
+            System.arraycopy(c, off, seg, this.curLen, n);
+            this.curLen += n;
+            this.size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String s, int off, int len)
+    {
+        if ((off | len | (s.length() - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        while (len > 0)
+        {
+            final char[] seg = nextSegment();
+            final int n = Math.min(len, seg.length - this.curLen);
+            s.getChars(off, off + n, seg, this.curLen);
+            this.curLen += n;
+            this.size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public SegmentedWriter append(char c)
+    {
+        write(c);
+        return this;
+    }
+
+    @Override
+    public SegmentedWriter append(CharSequence cs)
+    {
+        final CharSequence real = (cs == null ? "null" : cs);
+        return append(real, 0, real.length());
+    }
+
+    @Override
+    public SegmentedWriter append(CharSequence cs, int s, int e)
+    {
+        final CharSequence real = (cs == null ? "null" : cs);
+        if (s < 0 || e > real.length() || s > e)
+            throw new IndexOutOfBoundsException();
+
+        if (real instanceof String)
+        {
+            write((String) real, s, e - s);
+            return this;
+        }
+
+        while (s < e)
+        {
+            final char[] seg = nextSegment();
+            final int n = Math.min(e - s, seg.length - this.curLen);
+            if (real instanceof StringBuilder)
+            {
+                ((StringBuilder) real).getChars(s, s + n, seg, this.curLen);
+            }
+            else
+            {
+                for (int i = 0; i < n; i++)
+                    seg[this.curLen + i] = real.charAt(s + i);
+            }
+
+            this.curLen += n;
+            this.size += n;
+            s += n;
+        }
+
+        return this;
+    }
+
+    @Override
+    public void flush(){/*nothing*/}
+
+    @Override
+    public void close(){/*nothing*/}
+
+    /**
+     * @exception IllegalStateException if more than Integer.MAX_VALUE chars
+     *            have been written.
+     */
+    @Override
+    public int length()
+    {
+        if (this.size > Integer.MAX_VALUE)
+            throw new IllegalStateException("too many chars: " + this.size);
+
+        return (int) this.size;
+    }
+
+    @Override
+    public char charAt(int idx)
+    {
+        return charAt((long) idx);
+    }
+
+    /**
+     * Gets a char by a long index.
+     */
+    public char charAt(long idx)
+    {
+        if (idx < 0 || idx >= this.size)
+            throw new IndexOutOfBoundsException("idx out of bounds");
+
+        return this.segments.get((int) (idx >>> this.shift))
+            [(int) idx & this.mask];
+    }
+
+    /**
+     * Gets a view of part of the content. It remains valid as the writer
+     * is appended to, but not after it is cleared.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > this.size || start > end)
+            throw new IndexOutOfBoundsException("invalid range");
+
+        return new View(start, end);
+    }
+
+    /**
+     * Copies the chars [start, end) to a writer, a segment at a time.
+     */
+    private void copy(long start, long end, Writer w) throws IOException
+    {
+        while (start < end)
+        {
+            final int off = (int) start & this.mask;
+            final int n = (int) Math.min(end - start, this.mask + 1 - off);
+            w.write(this.segments.get((int) (start >>> this.shift)), off, n);
+            start += n;
+        }
+    }
+
+    /**
+     * Writes the content to a writer, a segment at a time.
+     */
+    public void writeTo(Writer w) throws IOException
+    {
+        copy(0, this.size, w);
+    }
+
+    /**
+     * Encodes the content to a stream, a segment at a time, through a
+     * small buffer. Malformed or unmappable chars are replaced.
+     */
+    public void writeTo(OutputStream out, Charset charset) throws IOException
+    {
+        final CharsetEncoder enc = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer bb = ByteBuffer.allocate(ENCODE_BUF_SIZE);
+
+        final int numSegs = this.segments.size();
+        final char[] pair = new char[2];
+        boolean carry = false;
+        for (int i = 0; i < numSegs; i++)
+        {
+            final char[] seg = this.segments.get(i);
+            final int len = (i == numSegs - 1 ? this.curLen : seg.length);
+            final boolean last = (i == numSegs - 1);
+            int start = 0;
+
+            // a high surrogate left over from the previous segment is
+            // encoded together with the first char of this one
+            if (carry && len > 0)
+            {
+                pair[1] = seg[0];
+                final CharBuffer pb = CharBuffer.wrap(pair);
+                encode(enc, pb, bb, out, last && len == 1);
+                // seg[0] is left if it is a high surrogate too
+                start = 1 - pb.remaining();
+            }
+            else if (carry)
+            {
+                encode(enc, CharBuffer.wrap(pair, 0, 1), bb, out, last);
+            }
+
+            final CharBuffer cb = CharBuffer.wrap(seg, start, len - start);
+            encode(enc, cb, bb, out, last);
+
+            // only a lone trailing high surrogate can be left
+            carry = cb.hasRemaining();
+            if (carry) pair[0] = cb.get();
+        }
+
+        while (true)
+        {
+            final CoderResult cr = enc.flush(bb);
+            drain(bb, out);
+            if (cr.isUnderflow()) break;
+        }
+    }
+
+    private static void encode(CharsetEncoder enc, CharBuffer cb,
+        ByteBuffer bb, OutputStream out, boolean last) throws IOException
+    {
+        while (true)
+        {
+            final CoderResult cr = enc.encode(cb, bb, last);
+            drain(bb, out);
+            if (cr.isUnderflow()) return;
+            if (cr.isError()) cr.throwException();
+        }
+    }
+
+    private static void drain(ByteBuffer bb, OutputStream out)
+        throws IOException
+    {
+        out.write(bb.array(), 0, bb.position());
+        bb.clear();
+    }
+
+    /**
+     * Gets a reader of the content written so far. Later writes are not
+     * seen by the reader.
+     */
+    public Reader getReader()
+    {
+        return new SegmentReader(0, this.size);
+    }
+
+    /**
+     * Copies the content into a String.
+     * @exception IllegalStateException if more than Integer.MAX_VALUE chars
+     *            have been written.
+     */
+    @Override
+    public String toString()
+    {
+        final StringBuilderWriter w = new StringBuilderWriter(length());
+        try
+        {
+            writeTo(w);
+        }
+        catch (IOException e)
+        {
+            // never thrown by StringBuilderWriter
+            throw new IllegalStateException(e);
+        }
+
+        return w.toString();
+    }
+
+    /** A view of a range of the content. */
+    private final class View implements CharSequence
+    {
+        private final long start, end;
+
+        View(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length()
+        {
+            return (int) (this.end - this.start);
+        }
+
+        @Override
+        public char charAt(int idx)
+        {
+            if (idx < 0 || idx >= length())
+                throw new IndexOutOfBoundsException("idx out of bounds");
+
+            return SegmentedWriter.this.charAt(this.start + idx);
+        }
+
+        @Override
+        public CharSequence subSequence(int s, int e)
+        {
+            if (s < 0 || e > length() || s > e)
+                throw new IndexOutOfBoundsException("invalid range");
+
+            return new View(this.start + s, this.start + e);
+        }
+
+        @Override
+        public String toString()
+        {
+            final StringBuilderWriter w = new StringBuilderWriter(length());
+            try
+            {
+                copy(this.start, this.end, w);
+            }
+            catch (IOException e)
+            {
+                // never thrown by StringBuilderWriter
+                throw new IllegalStateException(e);
+            }
+
+            return w.toString();
+        }
+    }
+
+    /** A reader of a range of the content. */
+    private final class SegmentReader extends Reader
+    {
+        private long pos;
+        private final long end;
+
+        SegmentReader(long start, long end)
+        {
+            this.pos = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] c, int off, int len)
+        {
+            if ((off | len | (c.length - (len + off)) | (off + len)) < 0)
+                throw new IndexOutOfBoundsException();
+
+            if (len == 0) return 0;
+            if (this.pos >= this.end) return -1;
+
+            final int segOff = (int) this.pos & SegmentedWriter.this.mask;
+            final int n = (int) Math.min(Math.min(len, this.end - this.pos),
+                SegmentedWriter.this.mask + 1 - segOff);
+            System.arraycopy(SegmentedWriter.this.segments.get(
+                (int) (this.pos >>> SegmentedWriter.this.shift)), segOff,
+                c, off, n);
+            this.pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            final long k = Math.max(0, Math.min(n, this.end - this.pos));
+            this.pos += k;
+            return k;
+        }
+
+        @Override
+        public boolean ready()
+        {
+            return true;
+        }
+
+        @Override
+        public void close(){/*nothing*/}
+    }
+}
@@ -0,0 +1,222 @@
+package j.io;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the calls made on streams, for use by {@link MeteredInputStream}
+ * and {@link MeteredOutputStream}. A meter can be shared by many streams,
+ * e.g., all the connections to one peer, and be read while they are in
+ * use.
+ *
+ * The counters are LongAdders, so recording takes no lock and scales with
+ * the no. of threads. The latency histogram is optional, since it costs
+ * an extra counter update per call.
+ *
+ * This class is thread-safe.
+ * @author Lucas Tan
+ */
+public final class StreamMeter implements StreamMetrics
+{
+    private final LongAdder calls;
+    private final LongAdder bytes;
+    private final LongAdder nanos;
+    private final LongAdder[] sizes;
+
+    /** Null if latencies are not recorded. */
+    private final LongAdder[] latencies;
+
+    /**
+     * Constructs a meter without a latency histogram.
+     */
+    public StreamMeter()
+    {
+        this(false);
+    }
+
+    /**
+     * @param latencyHistogram Whether to record the histogram of the time
+     *        taken per call.
+     */
+    public StreamMeter(boolean latencyHistogram)
+    {
+        this.calls = new LongAdder();
+        this.bytes = new LongAdder();
+        this.nanos = new LongAdder();
+        this.sizes = newHistogram();
+        this.latencies = (latencyHistogram ? newHistogram() : null);
+    }
+
+    private static LongAdder[] newHistogram()
+    {
+        final LongAdder[] h = new LongAdder[BUCKETS];
+        for (int i = 0; i < h.length; i++) h[i] = new LongAdder();
+        return h;
+    }
+
+    /**
+     * Gets the histogram bucket of a non-negative value.
+     */
+    static int bucket(long v)
+    {
+        return 64 - Long.numberOfLeadingZeros(v);
+    }
+
+    /**
+     * Records a call.
+     * @param n No. of bytes transferred, or 0 if none.
+     * @param elapsed Time taken in nanoseconds.
+     */
+    void record(long n, long elapsed)
+    {
+        this.calls.increment();
+        this.bytes.add(n);
+        this.nanos.add(elapsed);
+        this.sizes[bucket(n)].increment();
+
+        // the clock is not always monotonic across cores
+        if (this.latencies != null)
+            this.latencies[bucket(Math.max(0, elapsed))].increment();
+    }
+
+    @Override
+    public long getCalls()
+    {
+        return this.calls.sum();
+    }
+
+    @Override
+    public long getBytes()
+    {
+        return this.bytes.sum();
+    }
+
+    @Override
+    public long getNanos()
+    {
+        return this.nanos.sum();
+    }
+
+    @Override
+    public long[] getSizeHistogram()
+    {
+        return sum(this.sizes);
+    }
+
+    @Override
+    public long[] getLatencyHistogram()
+    {
+        return (this.latencies == null ? null : sum(this.latencies));
+    }
+
+    private static long[] sum(LongAdder[] h)
+    {
+        final long[] counts = new long[h.length];
+        for (int i = 0; i < h.length; i++) counts[i] = h[i].sum();
+        return counts;
+    }
+
+    /**
+     * Gets a copy of the counters, which does not change as more calls
+     * are recorded. Calls recorded while the copy is made might be partly
+     * included.
+     */
+    public StreamMetrics snapshot()
+    {
+        return new Snapshot(getCalls(), getBytes(), getNanos(),
+            getSizeHistogram(), getLatencyHistogram());
+    }
+
+    /**
+     * Clears the counters. Calls recorded meanwhile might be partly
+     * cleared.
+     */
+    public void reset()
+    {
+        this.calls.reset();
+        this.bytes.reset();
+        this.nanos.reset();
+        for (LongAdder a : this.sizes) a.reset();
+
+        if (this.latencies != null)
+        {
+            for (LongAdder a : this.latencies) a.reset();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return snapshot().toString();
+    }
+
+    /** Immutable counters. */
+    private static final class Snapshot implements StreamMetrics
+    {
+        private final long calls;
+        private final long bytes;
+        private final long nanos;
+        private final long[] sizes;
+        private final long[] latencies;
+
+        Snapshot(long calls, long bytes, long nanos, long[] sizes,
+            long[] latencies)
+        {
+            this.calls = calls;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.sizes = sizes;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public long getCalls()
+        {
+            return this.calls;
+        }
+
+        @Override
+        public long getBytes()
+        {
+            return this.bytes;
+        }
+
+        @Override
+        public long getNanos()
+        {
+            return this.nanos;
+        }
+
+        @Override
+        public long[] getSizeHistogram()
+        {
+            return this.sizes.clone();
+        }
+
+        @Override
+        public long[] getLatencyHistogram()
+        {
+            return (this.latencies == null ? null : this.latencies.clone());
+        }
+
+        @Override
+        public String toString()
+        {
+            return "calls=" + this.calls + ", bytes=" + this.bytes
+                + ", nanos=" + this.nanos
+                + ", sizes=" + Arrays.toString(trim(this.sizes))
+                + (this.latencies == null ? ""
+                    : ", latencies=" + Arrays.toString(trim(this.latencies)));
+        }
+
+        /**
+         * Drops the trailing empty buckets.
+         */
+        private static long[] trim(long[] h)
+        {
+            int n = h.length;
+            while (n > 0 && h[n - 1] == 0) n--;
+            return Arrays.copyOf(h, n);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package j.io;
+
+/**
+ * Counters of the calls made on a stream, as kept by a {@link StreamMeter}.
+ *
+ * Histograms have one bucket per power of two: bucket 0 counts the value
+ * 0, and bucket i, for i from 1 to 63, counts the values in
+ * [2^(i-1), 2^i).
+ * @author Lucas Tan
+ */
+public interface StreamMetrics
+{
+    /** No. of buckets of a histogram. */
+    int BUCKETS = 64;
+
+    /**
+     * Gets the no. of calls, including those that failed.
+     */
+    long getCalls();
+
+    /**
+     * Gets the no. of bytes transferred.
+     */
+    long getBytes();
+
+    /**
+     * Gets the total time spent in the calls, in nanoseconds. This is the
+     * time blocked on the underlying stream.
+     */
+    long getNanos();
+
+    /**
+     * Gets the histogram of the no. of bytes transferred per call.
+     * A call that transfers nothing, e.g., at end of stream, is counted in
+     * bucket 0.
+     * @return A new array of {@link #BUCKETS} counts.
+     */
+    long[] getSizeHistogram();
+
+    /**
+     * Gets the histogram of the time taken per call, in nanoseconds.
+     * @return A new array of {@link #BUCKETS} counts, or null if latencies
+     *         are not recorded.
+     */
+    long[] getLatencyHistogram();
+}
@@ -0,0 +1,144 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Moves a bounded number of bytes from an input stream to an output stream
+ * or a channel in large blocks.
+ *
+ * If the input is a file, the bytes are moved with
+ * {@link FileChannel#transferTo}, which lets the operating system send
+ * them to a file or socket without copying them through user space.
+ * A {@link LineInputStream} first hands over the bytes it has buffered,
+ * then the rest is moved from its underlying stream.
+ */
+final class Transfer
+{
+    // cannot instantiate
+    private Transfer(){}
+
+    /** Size of the blocks copied through the heap. */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Transfers bytes from a stream to a channel.
+     * @param count Max no. of bytes to transfer.
+     * @return The no. of bytes transferred, which is less than count only
+     *         if the end of the input has been reached.
+     */
+    static long transfer(InputStream in, long count, WritableByteChannel out)
+        throws IOException
+    {
+        if (count <= 0) return 0;
+
+        if (in instanceof LineInputStream)
+            return ((LineInputStream) in).transferTo(count, out);
+
+        if (in instanceof FileInputStream)
+            return transferFile((FileInputStream) in, count, out);
+
+        return copy(in, count, out);
+    }
+
+    /**
+     * Copies bytes from a stream to a channel through the heap.
+     */
+    private static long copy(InputStream in, long count,
+        WritableByteChannel out) throws IOException
+    {
+        final byte[] buf = new byte[(int) Math.min(BLOCK_SIZE, count)];
+        final ByteBuffer wrapper = ByteBuffer.wrap(buf);
+        long done = 0;
+        while (done < count)
+        {
+            final int n = in.read(buf, 0,
+                (int) Math.min(buf.length, count - done));
+            if (n < 0) break;
+
+            wrapper.clear();
+            wrapper.limit(n);
+            writeFully(wrapper, out);
+            done += n;
+        }
+
+        return done;
+    }
+
+    /**
+     * Transfers bytes from a stream to another stream.
+     * If out is a file, the bytes are written through its channel.
+     * @param count Max no. of bytes to transfer.
+     * @return The no. of bytes transferred, which is less than count only
+     *         if the end of the input has been reached.
+     */
+    static long transfer(InputStream in, long count, OutputStream out)
+        throws IOException
+    {
+        if (count <= 0) return 0;
+
+        if (out instanceof FileOutputStream)
+            return transfer(in, count, ((FileOutputStream) out).getChannel());
+
+        if (in instanceof LineInputStream)
+            return ((LineInputStream) in).transferTo(count, out);
+
+        final byte[] buf = new byte[(int) Math.min(BLOCK_SIZE, count)];
+        long done = 0;
+        while (done < count)
+        {
+            final int n = in.read(buf, 0,
+                (int) Math.min(buf.length, count - done));
+            if (n < 0) break;
+
+            out.write(buf, 0, n);
+            done += n;
+        }
+
+        return done;
+    }
+
+    /**
+     * Transfers bytes from the current position of a file, and advances
+     * the position past them.
+     */
+    private static long transferFile(FileInputStream in, long count,
+        WritableByteChannel out) throws IOException
+    {
+        final FileChannel file = in.getChannel();
+        final long pos = file.position();
+
+        long done = 0;
+        while (done < count)
+        {
+            final long n = file.transferTo(pos + done, count - done, out);
+            if (n <= 0) break;
+
+            done += n;
+        }
+
+        file.position(pos + done);
+
+        // transferTo() returns 0 at the end of a regular file, but also
+        // for a FIFO, a device or a /proc file, whose size is 0, so the
+        // rest is read from the stream until it really ends.
+        if (done < count) done += copy(in, count - done, out);
+
+        return done;
+    }
+
+    /**
+     * Writes all remaining bytes of a buffer to a channel.
+     */
+    static void writeFully(ByteBuffer b, WritableByteChannel out)
+        throws IOException
+    {
+        while (b.hasRemaining()) out.write(b);
+    }
+}
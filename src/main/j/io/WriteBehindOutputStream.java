@@ -0,0 +1,512 @@
+/**
+ * @author Lucas Tan
+ */
+
+package j.io;
+
+import java.io.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An output stream that writes to the underlying stream on a background
+ * thread, so that the threads writing to it are not held up by a slow
+ * disk or peer. It can wrap a file stream, or a
+ * {@link ChunkedOutputStream} to send a response.
+ *
+ * Writes are copied into a ring of blocks, and the background thread
+ * writes every block with a single write once it is full, so many small
+ * writes become a few large ones. The blocks are handed over through two
+ * counters, each written by one side only, so no lock is shared with the
+ * background thread; a writing thread only parks when all blocks are
+ * waiting to be written, which bounds the memory used and slows down
+ * writers to the speed of the underlying stream. The blocks are taken
+ * from the default {@link BufferPool} and put back by {@link #close()}.
+ *
+ * {@link #flushAsync()} returns a future that completes once everything
+ * written before it has been written and the underlying stream flushed.
+ * Flushes that are pending at the same time are done with a single flush
+ * of the underlying stream. {@link #flush()} waits for that future.
+ *
+ * An error of the underlying stream fails the pending flushes, and every
+ * later call on this stream. Data that is written but not flushed is lost
+ * if the JVM exits without closing this stream, since the background
+ * thread is a daemon by default.
+ *
+ * This class is thread-safe. Writing threads are serialized like those
+ * of {@link ChunkedOutputStream}, while the background thread takes no
+ * lock.
+ */
+public class WriteBehindOutputStream extends OutputStream
+{
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_DEPTH = 4;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /** Creates daemon threads, so that a stream which is not closed does
+     * not keep the JVM alive. */
+    private static final ThreadFactory DAEMON_FACTORY = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            final Thread t = new Thread(r,
+                "write-behind-" + THREAD_COUNT.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    private final OutputStream out;
+
+    private final byte[][] blocks;
+
+    /** No. of valid bytes of each block */
+    private final int[] lengths;
+
+    private final Thread writer;
+
+    /** No. of blocks filled. Only written by the writing threads. */
+    private volatile long published;
+
+    /** No. of blocks written to the underlying stream. Only written by the
+     * background thread. */
+    private volatile long written;
+
+    private volatile boolean producerWaiting;
+    private volatile Thread producer;
+    private volatile boolean writerWaiting;
+
+    /** Whether close() has been called. The background thread exits once
+     * everything before is written. */
+    private volatile boolean closed;
+
+    /** First error of the underlying stream */
+    private volatile IOException error;
+
+    /** Pending flushes, in order of the no. of blocks they wait for */
+    private final ConcurrentLinkedQueue<FlushRequest> flushes;
+
+    /** Completed by the background thread when it exits */
+    private final CompletableFuture<Void> done;
+
+    /** Block being filled, or null if none. Guarded by this. */
+    private byte[] cur;
+
+    /** No. of bytes in the current block. Guarded by this. */
+    private int count;
+
+    /** Buffer for write(int). Guarded by this. */
+    private final byte[] oneByte;
+
+    /** Whether the blocks have been put back to the pool. Guarded by
+     * this. */
+    private boolean released;
+
+    /**
+     * Constructs a stream with four blocks of 64K, written by a daemon
+     * thread.
+     * @exception IllegalArgumentException if out is null.
+     */
+    public WriteBehindOutputStream(OutputStream out)
+    {
+        this(out, DEFAULT_BLOCK_SIZE, DEFAULT_DEPTH, DAEMON_FACTORY);
+    }
+
+    /**
+     * @param blockSize Min size of a block, which is the usual no. of
+     *        bytes written to the underlying stream at a time.
+     * @param depth No. of blocks, which is the max no. of blocks waiting to
+     *        be written, including the one being filled.
+     * @exception IllegalArgumentException if out is null, blockSize is
+     *            non-positive or depth is less than 2.
+     */
+    public WriteBehindOutputStream(OutputStream out, int blockSize,
+        int depth)
+    {
+        this(out, blockSize, depth, DAEMON_FACTORY);
+    }
+
+    /**
+     * @param blockSize Min size of a block, which is the usual no. of
+     *        bytes written to the underlying stream at a time.
+     * @param depth No. of blocks, which is the max no. of blocks waiting to
+     *        be written, including the one being filled.
+     * @param factory Creates the thread that writes the underlying stream.
+     * @exception IllegalArgumentException if out or factory is null,
+     *            blockSize is non-positive or depth is less than 2.
+     */
+    public WriteBehindOutputStream(OutputStream out, int blockSize,
+        int depth, ThreadFactory factory)
+    {
+        if (out == null) throw new IllegalArgumentException("out is null");
+
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("blockSize must > 0");
+
+        if (depth < 2) throw new IllegalArgumentException("depth must >= 2");
+
+        if (factory == null)
+            throw new IllegalArgumentException("factory is null");
+
+        this.out = out;
+        this.blocks = new byte[depth][];
+        this.lengths = new int[depth];
+        this.flushes = new ConcurrentLinkedQueue<FlushRequest>();
+        this.done = new CompletableFuture<Void>();
+        this.cur = null;
+        this.count = 0;
+        this.oneByte = new byte[1];
+        this.released = false;
+
+        this.writer = factory.newThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        });
+
+        if (this.writer == null)
+            throw new IllegalStateException("factory made no thread");
+
+        for (int i = 0; i < depth; i++)
+            this.blocks[i] = BufferPool.getDefault().getBytes(blockSize);
+
+        this.writer.start();
+    }
+
+    /**
+     * Writes the blocks and does the flushes until this stream is closed.
+     */
+    private void drain()
+    {
+        final int depth = this.blocks.length;
+        try
+        {
+            while (true)
+            {
+                final long next = this.written;
+                if (next < this.published)
+                {
+                    final int idx = (int) (next % depth);
+                    writeBlock(this.blocks[idx], this.lengths[idx]);
+
+                    this.written = next + 1;
+                    if (this.producerWaiting)
+                        LockSupport.unpark(this.producer);
+                    continue;
+                }
+
+                // idle, so do the pending flushes at once
+                if (!this.flushes.isEmpty())
+                {
+                    flushOut(next);
+                    continue;
+                }
+
+                if (this.closed && next == this.published
+                    && this.flushes.isEmpty())
+                {
+                    break;
+                }
+
+                this.writerWaiting = true;
+                if (this.written == this.published
+                    && this.flushes.isEmpty() && !this.closed)
+                {
+                    LockSupport.park(this);
+                }
+                this.writerWaiting = false;
+            }
+        }
+        finally
+        {
+            closeOut();
+        }
+    }
+
+    /**
+     * Writes a block, unless an error has occurred, in which case the
+     * block is dropped so that writing threads are not left waiting.
+     */
+    private void writeBlock(byte[] b, int len)
+    {
+        if (this.error != null) return;
+
+        try
+        {
+            this.out.write(b, 0, len);
+        }
+        catch (IOException e)
+        {
+            this.error = e;
+        }
+        catch (RuntimeException e)
+        {
+            this.error = new IOException(e);
+        }
+    }
+
+    /**
+     * Flushes the underlying stream once for all pending flushes that
+     * wait for no more than a given no. of blocks.
+     */
+    private void flushOut(long numWritten)
+    {
+        if (this.error == null)
+        {
+            try
+            {
+                this.out.flush();
+            }
+            catch (IOException e)
+            {
+                this.error = e;
+            }
+            catch (RuntimeException e)
+            {
+                this.error = new IOException(e);
+            }
+        }
+
+        final IOException e = this.error;
+        FlushRequest r;
+        while ((r = this.flushes.peek()) != null && r.blocks <= numWritten)
+        {
+            this.flushes.poll();
+            if (e == null) r.future.complete(null);
+            else r.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Closes the underlying stream when the background thread exits.
+     */
+    private void closeOut()
+    {
+        try
+        {
+            this.out.close();
+        }
+        catch (IOException e)
+        {
+            if (this.error == null) this.error = e;
+        }
+        catch (RuntimeException e)
+        {
+            if (this.error == null) this.error = new IOException(e);
+        }
+
+        // flushes requested while closing
+        final IOException e = (this.error != null ? this.error
+            : new IOException("stream closed"));
+        FlushRequest r;
+        while ((r = this.flushes.poll()) != null)
+            r.future.completeExceptionally(e);
+
+        // the blocks are put back by close(), since this thread is about
+        // to exit and would keep them in its own cache of the pool.
+        this.done.complete(null);
+    }
+
+    private void checkState() throws IOException
+    {
+        if (this.closed) throw new IOException("stream closed");
+
+        final IOException e = this.error;
+        if (e != null) throw new IOException("write failed", e);
+    }
+
+    /**
+     * Waits for a free block to fill. Must hold the lock.
+     */
+    private void nextBlock() throws IOException
+    {
+        final long next = this.published;
+        while (next - this.written >= this.blocks.length)
+        {
+            this.producer = Thread.currentThread();
+            this.producerWaiting = true;
+            if (next - this.written >= this.blocks.length)
+                LockSupport.park(this);
+            this.producerWaiting = false;
+
+            // keep the interrupt status for the caller to see
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("interrupted");
+        }
+
+        this.cur = this.blocks[(int) (next % this.blocks.length)];
+        this.count = 0;
+    }
+
+    /**
+     * Hands the current block, if any, to the background thread. Must hold
+     * the lock.
+     */
+    private void publish()
+    {
+        if (this.cur == null || this.count == 0) return;
+
+        final long next = this.published;
+        this.lengths[(int) (next % this.blocks.length)] = this.count;
+        this.cur = null;
+        this.count = 0;
+
+        // the volatile write of published publishes the block
+        this.published = next + 1;
+        if (this.writerWaiting) LockSupport.unpark(this.writer);
+    }
+
+    @Override
+    public void write(int i) throws IOException
+    {
+        synchronized(this)
+        {
+            this.oneByte[0] = (byte) i;
+            write(this.oneByte, 0, 1);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if ((off | len | (b.length - (len + off)) | (off + len)) < 0)
+            throw new IndexOutOfBoundsException();
+
+        synchronized(this)
+        {
+            checkState();
+
+            while (len > 0)
+            {
+                if (this.cur == null) nextBlock();
+
+                final byte[] localCur = this.cur;
+                final int n = Math.min(len, localCur.length - this.count);
+                System.arraycopy(b, off, localCur, this.count, n);
+                this.count += n;
+                off += n;
+                len -= n;
+
+                if (this.count == localCur.length) publish();
+            }
+        }
+    }
+
+    /**
+     * Requests a flush of everything written so far, without waiting.
+     * The future completes on the background thread, so actions that
+     * depend on it should not block.
+     * @return A future which completes once the data has been written and
+     *         the underlying stream flushed, or completes exceptionally if
+     *         an error occurs or this stream is closed.
+     */
+    public CompletableFuture<Void> flushAsync()
+    {
+        final CompletableFuture<Void> f = new CompletableFuture<Void>();
+        synchronized(this)
+        {
+            try
+            {
+                checkState();
+            }
+            catch (IOException e)
+            {
+                f.completeExceptionally(e);
+                return f;
+            }
+
+            publish();
+            this.flushes.add(new FlushRequest(this.published, f));
+        }
+
+        LockSupport.unpark(this.writer);
+        return f;
+    }
+
+    /**
+     * Waits until everything written so far has been written and the
+     * underlying stream flushed.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        await(flushAsync());
+    }
+
+    /**
+     * Writes the remaining data, and closes the underlying stream after
+     * waiting for the background thread to write everything.
+     * @exception IOException if an error occurred while writing.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        // close() can be called multiple times.
+        synchronized(this)
+        {
+            if (!this.closed)
+            {
+                publish();
+                this.closed = true;
+            }
+        }
+
+        LockSupport.unpark(this.writer);
+        await(this.done);
+
+        // nobody touches the blocks once the background thread is done
+        synchronized(this)
+        {
+            if (!this.released)
+            {
+                this.released = true;
+                for (byte[] b : this.blocks) BufferPool.getDefault().put(b);
+            }
+        }
+
+        final IOException e = this.error;
+        if (e != null) throw new IOException("write failed", e);
+    }
+
+    private static void await(CompletableFuture<Void> f) throws IOException
+    {
+        try
+        {
+            f.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** A flush waiting for a no. of blocks to be written */
+    private static final class FlushRequest
+    {
+        final long blocks;
+        final CompletableFuture<Void> future;
+
+        FlushRequest(long blocks, CompletableFuture<Void> future)
+        {
+            this.blocks = blocks;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package j.algo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+public class ConnectedComponentsTest
+{
+    @Test
+    public void edgeFileTest() throws IOException
+    {
+        File in = File.createTempFile("edges", ".txt");
+        File out = File.createTempFile("components", ".txt");
+        try
+        {
+            write(in, "0 1\n\n2\t3\r\n  3 4  \n6 5");
+            assertEquals(3, ConnectedComponents.run(in, 7, 2, out));
+            assertEquals("0\n0\n1\n1\n1\n2\n2\n", read(out));
+        }
+        finally
+        {
+            in.delete();
+            out.delete();
+        }
+    }
+
+    /**
+     * Parses a file spanning several splits and compares the result 
+     * against unions performed directly.
+     */
+    @Test
+    public void largeEdgeFileTest() throws IOException
+    {
+        final int n = 200000;
+        final Random rand = new Random(42);
+        final UnionFind expected = new UnionFind(n);
+
+        File in = File.createTempFile("edges", ".txt");
+        try
+        {
+            Writer w = new BufferedWriter(new FileWriter(in));
+            for (int i = 0; i < 300000; i++)
+            {
+                final int a = rand.nextInt(n);
+                final int b = rand.nextInt(n);
+                expected.union(a, b);
+                w.write(a + " " + b + "\n");
+            }
+            w.close();
+            assertTrue(in.length() > 2 * 1024 * 1024);
+
+            UnionFind uf = ConnectedComponents.ofEdgeFile(in, n, 4);
+            assertEquals(expected.getDistinctCount(), uf.getDistinctCount());
+
+            int[] a = ConnectedComponents.componentIds(expected);
+            int[] b = ConnectedComponents.componentIds(uf);
+            for (int i = 0; i < n; i++) assertEquals(a[i], b[i]);
+        }
+        finally
+        {
+            in.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void outOfBoundsTest() throws IOException
+    {
+        File in = File.createTempFile("edges", ".txt");
+        try
+        {
+            write(in, "0 1\n1 7\n");
+            ConnectedComponents.ofEdgeFile(in, 7, 1);
+        }
+        finally
+        {
+            in.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedTest() throws IOException
+    {
+        File in = File.createTempFile("edges", ".txt");
+        try
+        {
+            write(in, "0 1\n2\n");
+            ConnectedComponents.ofEdgeFile(in, 7, 1);
+        }
+        finally
+        {
+            in.delete();
+        }
+    }
+
+    private static void write(File f, String s) throws IOException
+    {
+        OutputStream out = new FileOutputStream(f);
+        out.write(s.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private static String read(File f) throws IOException
+    {
+        InputStream in = new FileInputStream(f);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) bout.write(b);
+        in.close();
+        return bout.toString("UTF-8");
+    }
+}
@@ -0,0 +1,124 @@
+package j.algo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class GridLabelerTest
+{
+    @Test
+    public void connectivityTest()
+    {
+        byte[] grid = {
+            1, 0, 1,
+            0, 1, 0,
+            1, 0, 1};
+        int[] labels = new int[grid.length];
+
+        assertEquals(5, GridLabeler.label(grid, 3, 3, false, labels));
+        assertEquals("[1, 0, 2, 0, 3, 0, 4, 0, 5]", 
+            java.util.Arrays.toString(labels));
+
+        assertEquals(1, GridLabeler.label(grid, 3, 3, true, labels));
+        assertEquals("[1, 0, 1, 0, 1, 0, 1, 0, 1]", 
+            java.util.Arrays.toString(labels));
+    }
+
+    @Test
+    public void classMapTest()
+    {
+        int[] grid = {
+            2, 2, 3,
+            2, 3, 3,
+            0, 0, 2};
+        int[] labels = new int[grid.length];
+
+        assertEquals(3, GridLabeler.label(grid, 3, 3, false, labels));
+        assertEquals("[1, 1, 2, 1, 2, 2, 0, 0, 3]", 
+            java.util.Arrays.toString(labels));
+    }
+
+    /**
+     * Labels random grids large enough to be split into several strips and
+     * compares them against a flood fill.
+     */
+    @Test
+    public void randomGridTest()
+    {
+        final Random rand = new Random(99);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final int width = 701;
+        final int height = 1500;
+
+        for (int round = 0; round < 4; round++)
+        {
+            final boolean eight = (round & 1) != 0;
+            final int[] grid = new int[width * height];
+            for (int i = 0; i < grid.length; i++)
+                grid[i] = rand.nextInt(10) < 6 ? 0 : 1 + rand.nextInt(2);
+
+            final int[] labels = new int[grid.length];
+            final int n = GridLabeler.label(grid, width, height, eight,
+                labels, pool);
+
+            final int[] expected = floodFill(grid, width, height, eight);
+            int max = 0;
+            for (int i = 0; i < grid.length; i++)
+            {
+                assertEquals(expected[i], labels[i]);
+                max = Math.max(max, labels[i]);
+            }
+            assertEquals(max, n);
+        }
+
+        pool.shutdown();
+    }
+
+    private static int[] floodFill(int[] grid, int width, int height,
+        boolean eight)
+    {
+        final int[] labels = new int[grid.length];
+        final ArrayDeque<Integer> q = new ArrayDeque<Integer>();
+        int next = 0;
+
+        for (int start = 0; start < grid.length; start++)
+        {
+            if (grid[start] == 0 || labels[start] != 0) continue;
+
+            labels[start] = ++next;
+            q.add(start);
+            while (!q.isEmpty())
+            {
+                final int i = q.poll();
+                final int x = i % width;
+                final int y = i / width;
+                for (int dy = -1; dy <= 1; dy++)
+                {
+                    for (int dx = -1; dx <= 1; dx++)
+                    {
+                        if (dx == 0 && dy == 0) continue;
+                        if (!eight && dx != 0 && dy != 0) continue;
+
+                        final int nx = x + dx;
+                        final int ny = y + dy;
+                        if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                            continue;
+
+                        final int j = ny * width + nx;
+                        if (grid[j] == grid[i] && labels[j] == 0)
+                        {
+                            labels[j] = next;
+                            q.add(j);
+                        }
+                    }
+                }
+            }
+        }
+
+        return labels;
+    }
+}
@@ -0,0 +1,89 @@
+package j.algo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class RollbackUnionFindTest
+{
+    @Test
+    public void unionAndRollbackTest()
+    {
+        RollbackUnionFind uf = new RollbackUnionFind(6);
+        assertEquals(6, uf.getDistinctCount());
+
+        assertTrue(uf.union(0, 1));
+        final int cp = uf.checkpoint();
+
+        assertTrue(uf.union(1, 2));
+        assertTrue(uf.union(3, 4));
+        assertFalse(uf.union(0, 2));
+        assertTrue(uf.connected(0, 2));
+        assertEquals(3, uf.getDistinctCount());
+
+        uf.rollback(cp);
+        assertTrue(uf.connected(0, 1));
+        assertFalse(uf.connected(0, 2));
+        assertFalse(uf.connected(3, 4));
+        assertEquals(5, uf.getDistinctCount());
+
+        uf.rollback(0);
+        assertFalse(uf.connected(0, 1));
+        assertEquals(6, uf.getDistinctCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCheckpointTest()
+    {
+        RollbackUnionFind uf = new RollbackUnionFind(3);
+        uf.union(0, 1);
+        final int cp = uf.checkpoint();
+        uf.rollback(0);
+        uf.rollback(cp);
+    }
+
+    /**
+     * Randomly performs nested unions and rollbacks and compares the 
+     * resulting partitions against a brute-force labeling.
+     */
+    @Test
+    public void randomRollbackTest()
+    {
+        final int n = 50;
+        final Random rand = new Random(1234);
+        RollbackUnionFind uf = new RollbackUnionFind(n);
+
+        for (int round = 0; round < 200; round++)
+        {
+            final int[] before = labels(uf, n);
+            final int cp = uf.checkpoint();
+
+            for (int i = rand.nextInt(n); i > 0; i--)
+                uf.union(rand.nextInt(n), rand.nextInt(n));
+
+            uf.rollback(cp);
+            assertSamePartition(before, labels(uf, n));
+
+            // keep some of the unions for the next round
+            uf.union(rand.nextInt(n), rand.nextInt(n));
+        }
+    }
+
+    private static int[] labels(RollbackUnionFind uf, int n)
+    {
+        int[] l = new int[n];
+        for (int i = 0; i < n; i++) l[i] = uf.find(i);
+        return l;
+    }
+
+    private static void assertSamePartition(int[] a, int[] b)
+    {
+        for (int i = 0; i < a.length; i++)
+            for (int j = 0; j < a.length; j++)
+                assertEquals(a[i] == a[j], b[i] == b[j]);
+    }
+}
@@ -0,0 +1,75 @@
+package j.algo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SpanningForestTest
+{
+    @Test
+    public void smallGraphTest()
+    {
+        //   0 --1-- 1 --2-- 2
+        //   |       |
+        //   4       3          3 --1-- 4
+        //   |       |
+        //   +-------+  (self-loop on 2)
+        int[] u = {0, 1, 0, 1, 3, 2};
+        int[] v = {1, 2, 1, 1, 4, 2};
+        double[] w = {1, 2, 4, 3, 1, 0};
+
+        int[] k = SpanningForest.kruskal(5, u, v, w);
+        assertEquals("[0, 4, 1]", Arrays.toString(k));
+
+        int[] b = SpanningForest.boruvka(5, u, v, w);
+        Arrays.sort(b);
+        assertEquals("[0, 1, 4]", Arrays.toString(b));
+    }
+
+    @Test
+    public void randomGraphTest()
+    {
+        final Random rand = new Random(7);
+        final int n = 20000;
+        final int m = 100000;
+        int[] u = new int[m];
+        int[] v = new int[m];
+        double[] w = new double[m];
+        for (int i = 0; i < m; i++)
+        {
+            u[i] = rand.nextInt(n);
+            v[i] = rand.nextInt(n);
+            // plenty of ties
+            w[i] = rand.nextInt(1000);
+        }
+
+        int[] k = SpanningForest.kruskal(n, u, v, w);
+        for (int i = 1; i < k.length; i++)
+            assertTrue(w[k[i - 1]] <= w[k[i]]);
+
+        int[] b = SpanningForest.boruvka(n, u, v, w);
+        assertEquals(total(k, w), total(b, w), 0);
+
+        Arrays.sort(k);
+        Arrays.sort(b);
+        assertTrue(Arrays.equals(k, b));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanWeightTest()
+    {
+        SpanningForest.kruskal(2, new int[] {0}, new int[] {1},
+            new double[] {Double.NaN});
+    }
+
+    private static double total(int[] edges, double[] w)
+    {
+        double sum = 0;
+        for (int e : edges) sum += w[e];
+        return sum;
+    }
+}
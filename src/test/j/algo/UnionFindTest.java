@@ -0,0 +1,115 @@
+package j.algo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+
+public class UnionFindTest
+{
+    @Test
+    public void unionTest()
+    {
+        UnionFind uf = new UnionFind(5);
+        assertFalse(uf.connected(0, 1));
+        assertTrue(uf.union(0, 1));
+        assertTrue(uf.union(2, 3));
+        assertFalse(uf.union(1, 0));
+        assertTrue(uf.union(3, 1));
+        assertTrue(uf.connected(0, 2));
+        assertFalse(uf.connected(0, 4));
+        assertEquals(2, uf.getDistinctCount());
+        assertFalse(uf.areAllConnected());
+    }
+
+    @Test
+    public void serializationTest() throws Exception
+    {
+        UnionFind uf = new UnionFind(4);
+        uf.union(0, 1);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(uf);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bout.toByteArray()));
+        UnionFind copy = (UnionFind) in.readObject();
+
+        assertTrue(copy.connected(0, 1));
+        assertTrue(copy.union(1, 2));
+        assertEquals(2, copy.getDistinctCount());
+    }
+
+    @Test
+    public void snapshotTest() throws IOException
+    {
+        File file = File.createTempFile("unionfind", ".snap");
+        try
+        {
+            // large enough to span more than one I/O buffer
+            final int n = 100000;
+            UnionFind uf = new UnionFind(n);
+            for (int i = 0; i + 2 < n; i += 3) uf.union(i, i + 2);
+            uf.save(file);
+
+            UnionFind loaded = UnionFind.load(file);
+            assertEquals(uf.getDistinctCount(), loaded.getDistinctCount());
+            assertTrue(loaded.connected(3, 5));
+            assertFalse(loaded.connected(3, 4));
+
+            MappedUnionFind ro = 
+                MappedUnionFind.open(file, FileChannel.MapMode.READ_ONLY);
+            assertTrue(ro.connected(n - 4, n - 2));
+            assertFalse(ro.connected(0, 1));
+
+            MappedUnionFind rw = 
+                MappedUnionFind.open(file, FileChannel.MapMode.READ_WRITE);
+            assertTrue(rw.union(0, 1));
+            rw.force();
+
+            loaded = UnionFind.load(file);
+            assertTrue(loaded.connected(1, 2));
+            assertEquals(uf.getDistinctCount() - 1, 
+                loaded.getDistinctCount());
+
+            // copy-on-write: the sets change in memory but not in the file
+            MappedUnionFind cow = 
+                MappedUnionFind.open(file, FileChannel.MapMode.PRIVATE);
+            assertTrue(cow.union(3, 4));
+            assertTrue(cow.connected(5, 4));
+            assertEquals(uf.getDistinctCount() - 2, cow.getDistinctCount());
+
+            loaded = UnionFind.load(file);
+            assertFalse(loaded.connected(3, 4));
+            assertEquals(uf.getDistinctCount() - 1, 
+                loaded.getDistinctCount());
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void loadInvalidTest() throws IOException
+    {
+        File file = File.createTempFile("unionfind", ".snap");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[32]);
+            out.close();
+            UnionFind.load(file);
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest
+{
+    @Test
+    public void classOfTest()
+    {
+        assertEquals(6, BufferPool.classOf(0));
+        assertEquals(6, BufferPool.classOf(64));
+        assertEquals(7, BufferPool.classOf(65));
+        assertEquals(13, BufferPool.classOf(8192));
+        assertEquals(20, BufferPool.classOf(1 << 20));
+        assertEquals(-1, BufferPool.classOf((1 << 20) + 1));
+    }
+
+    @Test
+    public void reuseTest()
+    {
+        final BufferPool pool = new BufferPool(4, false);
+
+        final byte[] b = pool.getBytes(100);
+        assertEquals(128, b.length);
+        pool.put(b);
+        assertSame(b, pool.getBytes(128));
+        assertEquals(1, pool.getAllocations());
+
+        final char[] c = pool.getChars(5000);
+        assertEquals(8192, c.length);
+        pool.put(c);
+        assertSame(c, pool.getChars(4097));
+
+        // too large to be cached per thread, so shared
+        final byte[] big = pool.getBytes(1 << 20);
+        pool.put(big);
+        assertSame(big, pool.getBytes(1 << 19 | 1));
+
+        // too large or not a size class
+        final byte[] huge = pool.getBytes((1 << 20) + 1);
+        assertEquals((1 << 20) + 1, huge.length);
+        pool.put(huge);
+        pool.put(new byte[100]);
+        assertNotSame(huge, pool.getBytes((1 << 20) + 1));
+    }
+
+    @Test
+    public void directTest()
+    {
+        final BufferPool pool = new BufferPool(4, false);
+        final ByteBuffer bb = pool.getDirect(1000);
+        assertTrue(bb.isDirect());
+        assertEquals(1024, bb.capacity());
+
+        bb.put((byte) 1).flip();
+        pool.put(bb);
+
+        final ByteBuffer again = pool.getDirect(1024);
+        assertSame(bb, again);
+        assertEquals(0, again.position());
+        assertEquals(1024, again.limit());
+
+        // heap buffers are dropped
+        pool.put(ByteBuffer.allocate(1024));
+        assertNotSame(bb, pool.getDirect(1024));
+    }
+
+    @Test
+    public void leakTest()
+    {
+        final BufferPool pool = new BufferPool(4, true);
+        final byte[] a = pool.getBytes(10);
+        final byte[] b = pool.getBytes(10);
+        pool.put(a);
+        assertEquals(1, pool.getLeaks().size());
+
+        pool.put(b);
+        assertEquals(0, pool.getLeaks().size());
+
+        try
+        {
+            pool.put(b);
+            throw new AssertionError("double put not detected");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void streamsTest() throws IOException
+    {
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] data = "ab\r\ncd\r\n".getBytes("US-ASCII");
+
+        for (int i = 0; i < 3; i++) useStreams(data);
+        final long allocations = pool.getAllocations();
+
+        for (int i = 0; i < 100; i++) useStreams(data);
+        assertEquals(allocations, pool.getAllocations());
+    }
+
+    private static void useStreams(byte[] data) throws IOException
+    {
+        final ChunkedOutputStream out =
+            new ChunkedOutputStream(new NullOutputStream());
+        out.write(data);
+        out.close();
+
+        final LineInputStream in =
+            new LineInputStream(new ByteArrayInputStream(data));
+        assertEquals("ab", in.readLine());
+        in.close();
+    }
+}
@@ -0,0 +1,61 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class ChunkedByteChannelTest
+{
+    @Test
+    public void writeTest() throws IOException
+    {
+        File src = File.createTempFile("chunked", ".src");
+        File dst = File.createTempFile("chunked", ".dst");
+        try
+        {
+            FileOutputStream fout = new FileOutputStream(src);
+            fout.write("file region!".getBytes("UTF-8"));
+            fout.close();
+
+            FileInputStream fin = new FileInputStream(src);
+            ChunkedByteChannel ch = new ChunkedByteChannel(
+                new FileOutputStream(dst).getChannel(), 8);
+
+            assertEquals(2, ch.write(ByteBuffer.wrap("ab".getBytes("UTF-8"))));
+            assertEquals(3, ch.write(ByteBuffer.wrap("cde".getBytes("UTF-8"))));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(20);
+            direct.put("0123456789abcdefghij".getBytes("UTF-8"));
+            direct.flip();
+            assertEquals(20, ch.write(direct));
+            assertEquals(0, direct.remaining());
+
+            assertEquals(7, ch.transferFrom(fin.getChannel(), 5, 100));
+            ch.write(ByteBuffer.wrap("z".getBytes("UTF-8")));
+            ch.close();
+            ch.close();
+            fin.close();
+
+            assertEquals("5\r\nabcde\r\n14\r\n0123456789abcdefghij\r\n"
+                + "7\r\nregion!\r\n1\r\nz\r\n0\r\n\r\n", read(dst));
+        }
+        finally
+        {
+            src.delete();
+            dst.delete();
+        }
+    }
+
+    private static String read(File f) throws IOException
+    {
+        FileChannel ch = new FileInputStream(f).getChannel();
+        ByteBuffer b = ByteBuffer.allocate((int) ch.size());
+        while (b.hasRemaining() && ch.read(b) >= 0) { }
+        ch.close();
+        return new String(b.array(), "UTF-8");
+    }
+}
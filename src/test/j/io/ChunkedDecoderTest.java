@@ -0,0 +1,163 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ChunkedDecoderTest
+{
+    private static final String BODY =
+        "5\r\nhello\r\n7;name=val\r\n, world\r\n1\n!\n0\r\n"
+        + "Expires: never\r\nX-Sum: 1\r\n\r\nNEXT";
+
+    @Test
+    public void decodeTest() throws IOException
+    {
+        ChunkedDecoder d = new ChunkedDecoder();
+        ByteBuffer src = ByteBuffer.wrap(BODY.getBytes("UTF-8"));
+
+        assertEquals("hello, world!", decodeAll(d, src));
+        assertTrue(d.isFinished());
+        assertEquals(Arrays.asList("Expires: never", "X-Sum: 1"),
+            d.getTrailingHeaders());
+
+        // bytes after the body are left alone
+        assertEquals(4, src.remaining());
+        assertNull(d.decode(src));
+        assertEquals(4, src.remaining());
+    }
+
+    @Test
+    public void fragmentTest() throws IOException
+    {
+        byte[] b = BODY.getBytes("UTF-8");
+
+        // feed one byte at a time
+        ChunkedDecoder d = new ChunkedDecoder();
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (!d.isFinished())
+        {
+            ByteBuffer src = ByteBuffer.wrap(b, i, 1);
+            ByteBuffer data;
+            while ((data = d.decode(src)) != null) sb.append(str(data));
+            assertEquals(0, src.remaining());
+            i++;
+        }
+
+        assertEquals("hello, world!", sb.toString());
+        assertEquals(b.length - 4, i);
+        assertEquals(2, d.getTrailingHeaders().size());
+    }
+
+    @Test
+    public void noCopyTest() throws IOException
+    {
+        ChunkedDecoder d = new ChunkedDecoder();
+        byte[] b = "3\r\nabc\r\n0\r\n\r\n".getBytes("UTF-8");
+        ByteBuffer data = d.decode(ByteBuffer.wrap(b));
+
+        assertEquals(3, data.remaining());
+        assertTrue(data.hasArray());
+        assertTrue(b == data.array());
+        assertEquals(3, data.arrayOffset());
+        assertFalse(d.isFinished());
+    }
+
+    @Test
+    public void resetTest() throws IOException
+    {
+        ChunkedDecoder d = new ChunkedDecoder();
+        assertNull(d.decode(ByteBuffer.wrap("0\r\n\r\n".getBytes("UTF-8"))));
+        assertTrue(d.isFinished());
+        assertEquals(0, d.getTrailingHeaders().size());
+
+        d.reset();
+        assertFalse(d.isFinished());
+        assertNull(d.getTrailingHeaders());
+        assertEquals("xy", decodeAll(d,
+            ByteBuffer.wrap("2\r\nxy\r\n0\r\n\r\n".getBytes("UTF-8"))));
+        assertTrue(d.isFinished());
+    }
+
+    @Test
+    public void malformedTest() throws IOException
+    {
+        assertMalformed(new ChunkedDecoder(), "x\r\n");
+        assertMalformed(new ChunkedDecoder(), ";ext\r\n");
+        assertMalformed(new ChunkedDecoder(), "2\rx");
+        assertMalformed(new ChunkedDecoder(), "2\r\nabc\r\n");
+        assertMalformed(new ChunkedDecoder(), "10000000000000000\r\n");
+    }
+
+    @Test
+    public void limitTest() throws IOException
+    {
+        assertLimit(new ChunkedDecoder(4, 10, 100), "1;abcd\r\n", 4);
+        assertLimit(new ChunkedDecoder(4, 10, 100), "0\r\nabcde\r\n", 4);
+        assertLimit(new ChunkedDecoder(100, 1, 100),
+            "0\r\nA: 1\r\nB: 2\r\n", 1);
+        assertLimit(new ChunkedDecoder(100, 10, 7),
+            "0\r\nA: 1\r\nB: 2\r\n", 7);
+
+        ChunkedDecoder d = new ChunkedDecoder(4, 1, 4);
+        decodeAll(d, ByteBuffer.wrap("0\r\nA: 1\r\n\r\n".getBytes("UTF-8")));
+        assertTrue(d.isFinished());
+    }
+
+    private static void assertMalformed(ChunkedDecoder d, String s)
+        throws IOException
+    {
+        try
+        {
+            decodeAll(d, ByteBuffer.wrap(s.getBytes("UTF-8")));
+            fail("malformed input accepted: " + s);
+        }
+        catch (LimitExceededException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    private static void assertLimit(ChunkedDecoder d, String s, long limit)
+        throws IOException
+    {
+        try
+        {
+            decodeAll(d, ByteBuffer.wrap(s.getBytes("UTF-8")));
+            fail("limit not enforced: " + s);
+        }
+        catch (LimitExceededException e)
+        {
+            assertEquals(limit, e.getLimit());
+        }
+    }
+
+    private static String decodeAll(ChunkedDecoder d, ByteBuffer src)
+        throws IOException
+    {
+        StringBuilder sb = new StringBuilder();
+        ByteBuffer data;
+        while ((data = d.decode(src)) != null) sb.append(str(data));
+        return sb.toString();
+    }
+
+    private static String str(ByteBuffer b) throws IOException
+    {
+        byte[] tmp = new byte[b.remaining()];
+        b.get(tmp);
+        return new String(tmp, "UTF-8");
+    }
+}
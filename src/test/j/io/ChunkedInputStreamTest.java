@@ -0,0 +1,131 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.channels.Channels;
+
+public class ChunkedInputStreamTest
+{
+    private static LineInputStream lines(String s) throws IOException
+    {
+        return new LineInputStream(
+            new ByteArrayInputStream(s.getBytes("UTF-8")), 8, 16);
+    }
+
+    private static String readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        byte[] b = new byte[3];
+        int n;
+        while ((n = in.read(b, 0, b.length)) >= 0) bout.write(b, 0, n);
+        return bout.toString("UTF-8");
+    }
+
+    @Test
+    public void readTest() throws IOException
+    {
+        ChunkedInputStream in = new ChunkedInputStream(lines(
+            "5\r\nhello\r\n1;ext=1\r\n \r\na\r\n0123456789\r\n"
+            + "0\r\nA: 1\r\nB: 2\r\n\r\n"));
+
+        assertEquals(null, in.getTrailingHeaders());
+        assertEquals("hello 0123456789", readAll(in));
+        assertEquals("[A: 1, B: 2]", in.getTrailingHeaders().toString());
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = LimitExceededException.class)
+    public void chunkSizeLineTooLongTest() throws IOException
+    {
+        readAll(new ChunkedInputStream(lines(
+            "5;aaaaaaaaaaaaaaaaaaaaaaa\r\nhello\r\n0\r\n\r\n")));
+    }
+
+    @Test(expected = LimitExceededException.class)
+    public void tooManyTrailersTest() throws IOException
+    {
+        readAll(new ChunkedInputStream(lines(
+            "0\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n"), 2, 100));
+    }
+
+    @Test
+    public void trailerBudgetTest() throws IOException
+    {
+        try
+        {
+            readAll(new ChunkedInputStream(lines(
+                "0\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n"), 10, 10));
+            throw new AssertionError("budget not enforced");
+        }
+        catch (LimitExceededException e)
+        {
+            assertEquals(10, e.getLimit());
+        }
+    }
+
+    @Test
+    public void extensionTest() throws IOException
+    {
+        ChunkedInputStream in = new ChunkedInputStream(lines(
+            "2;a=1\r\nxy\r\nA\r\n0123456789\r\n1 ;b\r\nz\r\n0\r\n\r\n"));
+
+        assertNull(in.getChunkExtension());
+        assertEquals('x', in.read());
+        assertEquals("a=1", in.getChunkExtension());
+        assertEquals('y', in.read());
+        assertEquals('0', in.read());
+        assertNull(in.getChunkExtension());
+        assertEquals(9, in.skip(9));
+        assertEquals('z', in.read());
+        assertEquals("b", in.getChunkExtension());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void discardTrailersTest() throws IOException
+    {
+        ChunkedInputStream in = new ChunkedInputStream(lines(
+            "1\r\na\r\n0\r\nA: 1\r\nB: 2\r\n\r\n"), 2, 100, false);
+
+        assertEquals("a", readAll(in));
+        assertEquals(0, in.getTrailingHeaders().size());
+    }
+
+    @Test(expected = LimitExceededException.class)
+    public void discardTrailersLimitTest() throws IOException
+    {
+        readAll(new ChunkedInputStream(lines(
+            "0\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n"), 2, 100, false));
+    }
+
+    @Test(expected = EOFException.class)
+    public void missingChunkSizeTest() throws IOException
+    {
+        readAll(new ChunkedInputStream(lines("1\r\na\r\n")));
+    }
+
+    @Test
+    public void transferToTest() throws IOException
+    {
+        String body = "5\r\nhello\r\n1;ext=1\r\n \r\n"
+            + "a\r\n0123456789\r\n0\r\nA: 1\r\n\r\n";
+
+        ChunkedInputStream in = new ChunkedInputStream(lines(body));
+        assertEquals('h', in.read());
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        assertEquals(15, in.transferTo(bout));
+        assertEquals("ello 0123456789", bout.toString("UTF-8"));
+        assertEquals("[A: 1]", in.getTrailingHeaders().toString());
+        assertEquals(0, in.transferTo(bout));
+
+        in = new ChunkedInputStream(lines(body));
+        bout = new ByteArrayOutputStream();
+        assertEquals(16, in.transferTo(Channels.newChannel(bout)));
+        assertEquals("hello 0123456789", bout.toString("UTF-8"));
+        assertEquals(-1, in.read());
+    }
+}
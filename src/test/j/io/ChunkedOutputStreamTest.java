@@ -0,0 +1,100 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.*;
+
+public class ChunkedOutputStreamTest
+{
+    /** Counts the number of writes. */
+    private static class CountingStream extends ByteArrayOutputStream
+    {
+        int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len)
+        {
+            this.writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void write(int b)
+        {
+            this.writes++;
+            super.write(b);
+        }
+    }
+
+    @Test
+    public void framingTest() throws IOException
+    {
+        CountingStream bout = new CountingStream();
+        ChunkedOutputStream out = new ChunkedOutputStream(bout, 4);
+
+        out.write('a');
+        out.flush();
+        assertEquals("1\r\na\r\n", bout.toString("UTF-8"));
+        assertEquals(1, bout.writes);
+
+        // split into chunks of the buffer size, one write per chunk
+        out.write("bcdefghijk".getBytes("UTF-8"));
+        assertEquals(3, bout.writes);
+
+        // the buffer is filled up before it is written
+        out.write("lm".getBytes("UTF-8"));
+        out.write("nopqrs".getBytes("UTF-8"));
+        assertEquals(5, bout.writes);
+
+        out.flush();
+        assertEquals(6, bout.writes);
+
+        // an empty flush writes nothing
+        out.write('t');
+        out.flush();
+        out.flush();
+        assertEquals(7, bout.writes);
+
+        out.close();
+        out.close();
+        assertEquals(8, bout.writes);
+        assertEquals("1\r\na\r\n4\r\nbcde\r\n4\r\nfghi\r\n4\r\njklm\r\n"
+            + "4\r\nnopq\r\n2\r\nrs\r\n1\r\nt\r\n0\r\n\r\n",
+            bout.toString("UTF-8"));
+    }
+
+    @Test
+    public void roundTripTest() throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ChunkedOutputStream out = new ChunkedOutputStream(bout, 100);
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+
+        out.write(data, 0, 17);
+        out.write(data, 17, 500);
+        out.flush();
+        out.write(data, 517, 483);
+        out.close();
+
+        ChunkedInputStream in = new ChunkedInputStream(new LineInputStream(
+            new ByteArrayInputStream(bout.toByteArray())));
+        byte[] read = new byte[data.length];
+        int n = 0, r;
+        while ((r = in.read(read, n, read.length - n)) > 0) n += r;
+        assertEquals(data.length, n);
+        assertEquals(-1, in.read());
+        for (int i = 0; i < data.length; i++) assertEquals(data[i], read[i]);
+    }
+
+    @Test(expected = IOException.class)
+    public void closedTest() throws IOException
+    {
+        ChunkedOutputStream out = 
+            new ChunkedOutputStream(new ByteArrayOutputStream());
+        out.close();
+        out.write(1);
+    }
+}
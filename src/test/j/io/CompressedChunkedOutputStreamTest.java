@@ -0,0 +1,116 @@
+package j.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressedChunkedOutputStreamTest
+{
+    private static byte[] payload(int len)
+    {
+        // compressible but not trivially so
+        Random rand = new Random(42);
+        byte[] b = new byte[len];
+        for (int i = 0; i < len; i++) b[i] = (byte) ('a' + rand.nextInt(4));
+        return b;
+    }
+
+    private static byte[] inflate(byte[] chunked, boolean gzip)
+        throws IOException
+    {
+        InputStream in = new ChunkedInputStream(new LineInputStream(
+            new ByteArrayInputStream(chunked)));
+        in = (gzip ? new GZIPInputStream(in) : new InflaterInputStream(in));
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        byte[] b = new byte[1000];
+        int n;
+        while ((n = in.read(b)) >= 0) bout.write(b, 0, n);
+        return bout.toByteArray();
+    }
+
+    private static void roundTrip(boolean gzip) throws IOException
+    {
+        byte[] data = payload(100000);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        CompressedChunkedOutputStream out =
+            new CompressedChunkedOutputStream(bout, gzip, 256, data.length);
+
+        out.write(data[0]);
+        out.write(data, 1, 999);
+        out.write(data, 1000, data.length - 1000);
+        out.close();
+        out.close();
+
+        byte[] chunked = bout.toByteArray();
+        assertTrue(chunked.length < data.length / 2);
+        assertArrayEquals(data, inflate(chunked, gzip));
+    }
+
+    @Test
+    public void gzipTest() throws IOException
+    {
+        roundTrip(true);
+    }
+
+    @Test
+    public void deflateTest() throws IOException
+    {
+        roundTrip(false);
+    }
+
+    @Test
+    public void emptyTest() throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new CompressedChunkedOutputStream(bout, true).close();
+        assertEquals(0, inflate(bout.toByteArray(), true).length);
+    }
+
+    @Test
+    public void flushTest() throws IOException
+    {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        CompressedChunkedOutputStream out =
+            new CompressedChunkedOutputStream(bout, false);
+        out.write("hello".getBytes("UTF-8"));
+        out.flush();
+
+        // everything written so far can be decompressed
+        byte[] chunked = bout.toByteArray();
+        String s = new String(chunked, "UTF-8");
+        assertTrue(s.endsWith("\r\n") && !s.endsWith("0\r\n\r\n"));
+
+        InputStream in = new InflaterInputStream(new ChunkedInputStream(
+            new LineInputStream(new ByteArrayInputStream(chunked))));
+        byte[] b = new byte[5];
+        assertEquals(5, in.read(b));
+        assertEquals("hello", new String(b, "UTF-8"));
+
+        // an empty flush writes nothing
+        out.flush();
+        assertEquals(chunked.length, bout.size());
+        out.close();
+    }
+
+    @Test
+    public void levelTest()
+    {
+        assertEquals(Deflater.DEFAULT_COMPRESSION,
+            CompressedChunkedOutputStream.levelFor(-1));
+        assertEquals(Deflater.BEST_COMPRESSION,
+            CompressedChunkedOutputStream.levelFor(1000));
+        assertEquals(Deflater.DEFAULT_COMPRESSION,
+            CompressedChunkedOutputStream.levelFor(100000));
+        assertEquals(Deflater.BEST_SPEED,
+            CompressedChunkedOutputStream.levelFor(10000000));
+    }
+}
@@ -0,0 +1,230 @@
+package j.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FileUtilTest
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SEP = FileUtil.LINE_SEP;
+
+    private static File write(byte[] b) throws IOException
+    {
+        File f = File.createTempFile("fileutil", ".txt");
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(b);
+        out.close();
+        return f;
+    }
+
+    @Test
+    public void readAllTest() throws IOException
+    {
+        File f = write("a\r\nb\rc\n\nd\r\n".getBytes("UTF-8"));
+        try
+        {
+            assertEquals("a" + SEP + "b" + SEP + "c" + SEP + SEP + "d",
+                FileUtil.readAll(f));
+            assertEquals("a\r\nb\rc\n\nd\r\n",
+                FileUtil.readAll(f.toPath(), UTF_8));
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void charsetTest() throws IOException
+    {
+        File f = write("caf\u00e9\n".getBytes("UTF-8"));
+        try
+        {
+            assertEquals("caf\u00e9", FileUtil.readAll(f.getPath(), "UTF-8"));
+            assertEquals("caf\u00c3\u00a9\n", FileUtil.readAll(f.toPath(),
+                Charset.forName("ISO-8859-1")));
+            assertEquals(6, FileUtil.readAllBytes(f.toPath()).length);
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+
+    @Test(expected = UnsupportedEncodingException.class)
+    public void badCharsetTest() throws IOException
+    {
+        FileUtil.readAll("nosuchfile", "no-such-charset");
+    }
+
+    @Test
+    public void largeTest() throws IOException
+    {
+        byte[] b = new byte[1024 * 1024 + 3];
+        Arrays.fill(b, (byte) 'x');
+        // a two-byte char at the end
+        b[b.length - 2] = (byte) 0xc3;
+        b[b.length - 1] = (byte) 0xa9;
+
+        File f = write(b);
+        try
+        {
+            String s = FileUtil.readAll(f.toPath(), UTF_8);
+            assertEquals(b.length - 1, s.length());
+            assertEquals('\u00e9', s.charAt(s.length() - 1));
+            assertEquals(b.length, FileUtil.readAll(f.toPath(),
+                Charset.forName("ISO-8859-1")).length());
+
+            // the odd byte at the end is replaced
+            s = FileUtil.readAll(f.toPath(), Charset.forName("UTF-16BE"));
+            assertEquals((b.length + 1) / 2, s.length());
+            assertArrayEquals(b, FileUtil.readAllBytes(f.toPath()));
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+
+    /** Collects lines with their range line numbers, in order. */
+    private static final class Collector implements LineProcessor<List<String>>
+    {
+        @Override
+        public List<String> newResult()
+        {
+            return new ArrayList<String>();
+        }
+
+        @Override
+        public void processLine(List<String> result, long lineNum,
+            CharSequence line)
+        {
+            assertEquals(result.size() + 1, lineNum);
+            result.add(line.toString());
+        }
+
+        @Override
+        public List<String> merge(List<String> left, List<String> right)
+        {
+            left.addAll(right);
+            return left;
+        }
+    }
+
+    @Test
+    public void forEachLineTest() throws IOException
+    {
+        // enough lines of varying length for several ranges, with a line
+        // across the first range boundary that is much longer than the
+        // lookahead
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        boolean longLine = false;
+        for (int i = 0; i < 300000; i++)
+        {
+            String line = "line \u00e9 " + i;
+            if (i % 7 == 0) line = "";
+            if (!longLine && sb.length() > 1000000)
+            {
+                line = repeat('y', 200000);
+                longLine = true;
+            }
+            expected.add(line);
+            sb.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        sb.append("last");
+        expected.add("last");
+
+        File f = write(sb.toString().getBytes("UTF-8"));
+        try
+        {
+            assertEquals(expected, FileUtil.forEachLine(f.toPath(), UTF_8, 4,
+                new Collector()));
+
+            long[] count = FileUtil.forEachLine(f.toPath(), UTF_8, 3, false,
+                new LineProcessor<long[]>() {
+                    @Override
+                    public long[] newResult()
+                    {
+                        return new long[1];
+                    }
+
+                    @Override
+                    public void processLine(long[] result, long lineNum,
+                        CharSequence line)
+                    {
+                        result[0]++;
+                    }
+
+                    @Override
+                    public long[] merge(long[] left, long[] right)
+                    {
+                        left[0] += right[0];
+                        return left;
+                    }
+                });
+            assertEquals(expected.size(), count[0]);
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void forEachLineSmallTest() throws IOException
+    {
+        File f = write("a\n\nb\n".getBytes("UTF-8"));
+        try
+        {
+            assertEquals(Arrays.asList("a", "", "b"), FileUtil.forEachLine(
+                f.toPath(), UTF_8, 2, new Collector()));
+        }
+        finally
+        {
+            f.delete();
+        }
+
+        f = write(new byte[0]);
+        try
+        {
+            assertEquals(0, FileUtil.forEachLine(f.toPath(), UTF_8, 2,
+                new Collector()).size());
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forEachLineCharsetTest() throws IOException
+    {
+        File f = write("a\nb\n".getBytes("UTF-16LE"));
+        try
+        {
+            FileUtil.forEachLine(f.toPath(), Charset.forName("UTF-16LE"), 2,
+                new Collector());
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+
+    private static String repeat(char ch, int n)
+    {
+        char[] c = new char[n];
+        Arrays.fill(c, ch);
+        return new String(c);
+    }
+}
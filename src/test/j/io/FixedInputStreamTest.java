@@ -0,0 +1,145 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+public class FixedInputStreamTest
+{
+    @Test
+    public void transferToStreamTest() throws IOException
+    {
+        FixedInputStream in = new FixedInputStream(
+            new ByteArrayInputStream("hello world".getBytes("UTF-8")), 7);
+        assertEquals('h', in.read());
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        assertEquals(6, in.transferTo(bout));
+        assertEquals("ello w", bout.toString("UTF-8"));
+        assertEquals(-1, in.read());
+        assertEquals(0, in.transferTo(bout));
+    }
+
+    @Test
+    public void transferToChannelTest() throws IOException
+    {
+        // bytes buffered by a LineInputStream come first
+        LineInputStream lines = new LineInputStream(
+            new ByteArrayInputStream("GET\r\nbody!extra".getBytes("UTF-8")), 8);
+        assertEquals("GET", lines.readLine());
+
+        FixedInputStream in = new FixedInputStream(lines, 5);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        assertEquals(5, in.transferTo(Channels.newChannel(bout)));
+        assertEquals("body!", bout.toString("UTF-8"));
+        assertEquals('e', lines.read());
+    }
+
+    @Test
+    public void transferFileTest() throws IOException
+    {
+        File src = File.createTempFile("fixed", ".src");
+        File dst = File.createTempFile("fixed", ".dst");
+        try
+        {
+            FileOutputStream fout = new FileOutputStream(src);
+            fout.write("0123456789".getBytes("UTF-8"));
+            fout.close();
+
+            FileInputStream fin = new FileInputStream(src);
+            assertEquals(2, fin.skip(2));
+
+            // longer than the rest of the file
+            FixedInputStream in = new FixedInputStream(fin, 100);
+            FileOutputStream out = new FileOutputStream(dst);
+            assertEquals(8, in.transferTo(out));
+            out.close();
+            assertEquals(-1, in.read());
+            in.close();
+
+            FileChannel ch = new FileInputStream(dst).getChannel();
+            ByteBuffer b = ByteBuffer.allocate((int) ch.size());
+            while (b.hasRemaining() && ch.read(b) >= 0) { }
+            ch.close();
+            assertEquals("23456789", new String(b.array(), "UTF-8"));
+        }
+        finally
+        {
+            src.delete();
+            dst.delete();
+        }
+    }
+
+    @Test
+    public void transferSizelessFileTest() throws IOException
+    {
+        // a /proc file has a size of 0 but is not empty
+        File proc = new File("/proc/self/status");
+        if (!proc.exists()) return;
+
+        FixedInputStream in = new FixedInputStream(
+            new FileInputStream(proc), 10);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        assertEquals(10, in.transferTo(Channels.newChannel(bout)));
+        assertEquals(10, bout.size());
+        in.close();
+    }
+
+    @Test
+    public void readFullyTest() throws IOException
+    {
+        // the underlying stream returns at most 3 bytes per read
+        InputStream trickle = new FilterInputStream(
+            new ByteArrayInputStream("0123456789".getBytes("UTF-8")))
+        {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+
+        FixedInputStream in = new FixedInputStream(trickle, 8, false);
+        byte[] b = new byte[10];
+        assertEquals(5, in.readFully(b, 0, 5));
+        assertEquals("01234", new String(b, 0, 5, "UTF-8"));
+        assertEquals(3, in.readFully(b, 0, 10));
+        assertEquals("567", new String(b, 0, 3, "UTF-8"));
+        assertEquals(-1, in.readFully(b, 0, 10));
+        assertEquals(0, in.readFully(b, 0, 0));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void readAllBytesTest() throws IOException
+    {
+        FixedInputStream in = new FixedInputStream(
+            new ByteArrayInputStream("0123456789".getBytes("UTF-8")), 4, false);
+        assertEquals('0', in.read());
+        assertEquals("123", new String(in.readAllBytes(), "UTF-8"));
+        assertEquals(0, in.readAllBytes().length);
+
+        // shorter than the size
+        in = new FixedInputStream(
+            new ByteArrayInputStream("01".getBytes("UTF-8")), 4);
+        assertEquals("01", new String(in.readAllBytes(), "UTF-8"));
+
+        // a huge declared size is not allocated up front
+        byte[] data = new byte[20000];
+        data[19999] = 7;
+        in = new FixedInputStream(new ByteArrayInputStream(data),
+            Integer.MAX_VALUE);
+        byte[] all = in.readAllBytes();
+        assertEquals(20000, all.length);
+        assertEquals(7, all[19999]);
+
+        // exactly the size, across several growths
+        in = new FixedInputStream(new ByteArrayInputStream(data), 19000);
+        assertEquals(19000, in.readAllBytes().length);
+    }
+}
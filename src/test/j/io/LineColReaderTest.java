@@ -0,0 +1,152 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+
+public class LineColReaderTest
+{
+    @Test
+    public void readTest() throws IOException
+    {
+        LineColReader r = new LineColReader(new StringReader("ab\r\nc\rd\n\ne"));
+        assertEquals(0, r.getLineNum());
+        assertEquals(0, r.getColumnNum());
+
+        int[][] expected = {
+            {'a', 1, 1}, {'b', 1, 2}, {'\n', 1, 3}, {'c', 2, 1},
+            {'\n', 2, 2}, {'d', 3, 1}, {'\n', 3, 2}, {'\n', 4, 1},
+            {'e', 5, 1}};
+        for (int[] e : expected)
+        {
+            assertEquals(e[0], r.peek());
+            assertEquals(e[0], r.read());
+            assertEquals(e[1], r.getLineNum());
+            assertEquals(e[2], r.getColumnNum());
+        }
+
+        assertEquals(-1, r.peek());
+        assertEquals(-1, r.read());
+        assertEquals(-1, r.read(new char[4], 0, 4));
+    }
+
+    /**
+     * Checks bulk reads against single char reads on random text, with
+     * a small buffer so that \r\n is often split across fills.
+     */
+    @Test
+    public void bulkTest() throws IOException
+    {
+        Random rand = new Random(7);
+        char[] alphabet = {'a', 'b', '\r', '\n'};
+        char[] text = new char[5000];
+        for (int i = 0; i < text.length; i++)
+            text[i] = alphabet[rand.nextInt(alphabet.length)];
+        String s = new String(text);
+
+        LineColReader ref = new LineColReader(new StringReader(s), 1);
+        StringBuilder chars = new StringBuilder();
+        StringBuilder lines = new StringBuilder();
+        int ch;
+        while ((ch = ref.read()) >= 0)
+        {
+            chars.append((char) ch);
+            lines.append(ref.getLineNum()).append(':')
+                .append(ref.getColumnNum()).append(' ');
+        }
+        String[] pos = lines.toString().split(" ");
+
+        LineColReader r = new LineColReader(new StringReader(s), 5);
+        char[] b = new char[16];
+        int count = 0;
+        while (true)
+        {
+            int n;
+            if (rand.nextInt(4) == 0)
+            {
+                n = r.read();
+                if (n < 0) break;
+                assertEquals(chars.charAt(count), (char) n);
+                n = 1;
+            }
+            else
+            {
+                int off = rand.nextInt(4);
+                n = r.read(b, off, rand.nextInt(b.length - off));
+                if (n < 0) break;
+                assertEquals(chars.substring(count, count + n),
+                    new String(b, off, n));
+            }
+
+            count += n;
+            if (count > 0)
+            {
+                assertEquals(pos[count - 1],
+                    r.getLineNum() + ":" + r.getColumnNum());
+            }
+        }
+
+        assertEquals(chars.length(), count);
+    }
+
+    @Test
+    public void markResetTest() throws IOException
+    {
+        // a tiny buffer so that marks survive several fills
+        LineColReader r = new LineColReader(
+            new StringReader("let x\r\n  = 10;\nend"), 3, 16);
+        assertEquals('l', r.read());
+
+        LineColReader.Position p = r.mark();
+        assertEquals(1, p.getOffset());
+        assertEquals(1, p.getLineNum());
+        assertEquals(1, p.getColumnNum());
+
+        char[] b = new char[32];
+        int n = 0;
+        while (n < 12) n += r.read(b, n, 12 - n);
+        assertEquals("et x\n  = 10;", new String(b, 0, n));
+        assertEquals(2, r.getLineNum());
+        assertEquals(7, r.getColumnNum());
+
+        LineColReader.Position q = r.mark();
+        assertEquals("et x\n  = 10;",
+            r.getText(p, q, new CharSlice()).toString());
+
+        r.reset(p);
+        assertEquals(1, r.getLineNum());
+        assertEquals(1, r.getColumnNum());
+        assertEquals('e', r.read());
+        assertEquals(2, r.getColumnNum());
+
+        r.reset(q);
+        assertEquals('\n', r.read());
+        assertEquals(2, r.getLineNum());
+        assertEquals(8, r.getColumnNum());
+        assertEquals('e', r.read());
+        assertEquals(3, r.getLineNum());
+        assertEquals(1, r.getColumnNum());
+
+        // the standard mark and reset
+        assertTrue(r.markSupported());
+        r.mark(16);
+        assertEquals('n', r.read());
+        r.reset();
+        assertEquals('n', r.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void markExpiredTest() throws IOException
+    {
+        LineColReader r = new LineColReader(
+            new StringReader("0123456789abcdefghij"), 4, 4);
+        LineColReader.Position p = r.mark();
+        char[] b = new char[1];
+        for (int i = 0; i < 12; i++) r.read(b, 0, 1);
+        r.reset(p);
+    }
+}
@@ -0,0 +1,114 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+public class LineIndexTest
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static void append(File f, String s) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(f, true);
+        out.write(s.getBytes("UTF-8"));
+        out.close();
+    }
+
+    private static String terminator(int i)
+    {
+        return (i % 3 == 0 ? "\r\n" : i % 3 == 1 ? "\n" : "\r");
+    }
+
+    @Test
+    public void seekTest() throws IOException
+    {
+        File f = File.createTempFile("lineidx", ".txt");
+        File idx = File.createTempFile("lineidx", ".idx");
+        try
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 1; i <= 1000; i++)
+                sb.append("line ").append(i).append(terminator(i));
+            append(f, sb.toString());
+
+            LineIndex index = LineIndex.build(f.toPath(), 7);
+            assertEquals(1000, index.getLineCount());
+            assertEquals(f.length(), index.getIndexedLength());
+
+            for (int n : new int[] {1, 2, 7, 8, 9, 500, 999, 1000})
+            {
+                LineReader r = index.seekToLine(f.toPath(), UTF_8, n);
+                assertEquals("line " + n, r.readLine());
+                assertEquals(n, r.getLineNum());
+                r.close();
+            }
+
+            // save, load and append, ending with the CR of a CRLF
+            index.save(idx);
+            index = LineIndex.load(idx);
+            append(f, "tail 1001\r");
+            assertEquals(1, index.update(f.toPath()));
+            append(f, "\nlast");
+            assertEquals(1, index.update(f.toPath()));
+            assertEquals(1002, index.getLineCount());
+
+            LineReader r = index.seekToLine(f.toPath(), UTF_8, 1001);
+            assertEquals("tail 1001", r.readLine());
+            assertEquals("last", r.readLine());
+            assertEquals(1002, r.getLineNum());
+            r.close();
+
+            FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ);
+            assertEquals(f.length() - 4, index.getOffset(ch, 1002));
+            ch.close();
+        }
+        finally
+        {
+            f.delete();
+            idx.delete();
+        }
+    }
+
+    @Test
+    public void shrinkTest() throws IOException
+    {
+        File f = File.createTempFile("lineidx", ".txt");
+        try
+        {
+            append(f, "a\nb\nc\n");
+            LineIndex index = LineIndex.build(f.toPath(), 2);
+            assertEquals(3, index.getLineCount());
+
+            new FileOutputStream(f).close();
+            append(f, "x\n");
+            assertEquals(1, index.update(f.toPath()));
+            assertEquals(1, index.getLineCount());
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outOfBoundsTest() throws IOException
+    {
+        File f = File.createTempFile("lineidx", ".txt");
+        try
+        {
+            append(f, "a\nb\n");
+            LineIndex.build(f.toPath(), 2).seekToLine(f.toPath(), UTF_8, 3);
+        }
+        finally
+        {
+            f.delete();
+        }
+    }
+}
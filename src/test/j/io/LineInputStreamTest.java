@@ -0,0 +1,123 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.*;
+
+public class LineInputStreamTest
+{
+    private static final String TEXT = 
+        "GET / HTTP/1.1\r\nHost: h\u00e9llo\r\n\nx\ry\r\n\r\nbody";
+
+    /** Returns at most one byte per read, to exercise buffer refills. */
+    private static InputStream trickle(byte[] b)
+    {
+        return new ByteArrayInputStream(b) {
+            @Override
+            public synchronized int read(byte[] buf, int off, int len)
+            {
+                return super.read(buf, off, Math.min(len, 1));
+            }
+        };
+    }
+
+    @Test
+    public void readLineTest() throws IOException
+    {
+        final byte[] bytes = TEXT.getBytes("UTF-8");
+        final LineInputStream[] streams = {
+            new LineInputStream(new ByteArrayInputStream(bytes)),
+            new LineInputStream(new ByteArrayInputStream(bytes), 3),
+            new LineInputStream(trickle(bytes), 1)};
+
+        for (LineInputStream in : streams)
+        {
+            assertEquals("GET / HTTP/1.1", in.readLine());
+            assertEquals("Host: h\u00e9llo", in.readLine());
+            assertEquals("", in.readLine());
+            assertEquals("x", in.readLine());
+            assertEquals("y", in.readLine());
+            assertEquals("", in.readLine());
+
+            // switch to reading bytes
+            byte[] b = new byte[10];
+            int n = 0, r;
+            while ((r = in.read(b, n, b.length - n)) > 0) n += r;
+            assertEquals("body", new String(b, 0, n, "UTF-8"));
+            assertEquals(null, in.readLine());
+            in.close();
+        }
+    }
+
+    @Test
+    public void mixedReadTest() throws IOException
+    {
+        LineInputStream in = new LineInputStream(
+            new ByteArrayInputStream("ab\rcd\r\nef".getBytes("UTF-8")), 4);
+        assertEquals("ab", in.readLine());
+        assertEquals('c', in.read());
+        assertEquals(1, in.skip(1));
+        assertEquals("", in.readLine());
+        assertEquals(2, in.available());
+        assertEquals("ef", in.readLine());
+        assertEquals(-1, in.read());
+        assertEquals(null, in.readLine());
+    }
+
+    @Test
+    public void readLineSliceTest() throws IOException
+    {
+        LineInputStream in = new LineInputStream(new ByteArrayInputStream(
+            "abc\r\nd\u00e9f\rlonger line".getBytes("UTF-8")), 4);
+        LineSlice slice = new LineSlice();
+
+        assertSame(slice, in.readLine(slice));
+        assertTrue(slice.isAscii());
+        assertEquals(3, slice.getLength());
+        assertEquals('b', slice.charAt(1));
+        assertEquals("abc", slice.toString());
+
+        in.readLine(slice);
+        assertFalse(slice.isAscii());
+        assertEquals(4, slice.getLength());
+        assertEquals(3, slice.length());
+        assertEquals("d\u00e9f", slice.toString());
+
+        in.readLine(slice);
+        assertEquals("longer line", slice.toString());
+        assertEquals(null, in.readLine(slice));
+    }
+
+    @Test
+    public void maxLineLengthTest() throws IOException
+    {
+        LineInputStream in = new LineInputStream(new ByteArrayInputStream(
+            "1234\n12345".getBytes("UTF-8")), 2, 4);
+        assertEquals("1234", in.readLine());
+        try
+        {
+            in.readLine();
+            fail("line should be too long");
+        }
+        catch (LimitExceededException e)
+        {
+            assertEquals(4, e.getLimit());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void closedTest() throws IOException
+    {
+        LineInputStream in = new LineInputStream(
+            new ByteArrayInputStream(new byte[1]));
+        in.close();
+        in.close();
+        in.readLine();
+    }
+}
@@ -0,0 +1,41 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.*;
+
+public class LineReaderTest
+{
+    @Test
+    public void readLineSliceTest() throws IOException
+    {
+        LineReader r = new LineReader(
+            new StringReader("one\r\ntwo\rthree\n\nfour"), 4);
+        CharSlice slice = new CharSlice();
+
+        assertEquals("one", r.readLine(slice).toString());
+        assertEquals(1, r.getLineNum());
+
+        // mixing both kinds of readLine
+        assertEquals("two", r.readLine());
+        assertEquals("three", r.readLine(slice).toString());
+        assertEquals("hre", slice.subSequence(1, 4).toString());
+        assertEquals("", r.readLine());
+        assertEquals("four", r.readLine(slice).toString());
+        assertEquals(null, r.readLine(slice));
+        assertEquals(null, r.readLine());
+        assertEquals(5, r.getLineNum());
+    }
+
+    @Test
+    public void superReadLineThenSliceTest() throws IOException
+    {
+        LineReader r = new LineReader(new StringReader("a\r\nb\r\n"));
+        assertEquals("a", r.readLine());
+        assertEquals("b", r.readLine(new CharSlice()).toString());
+        assertEquals(null, r.readLine());
+        assertEquals(2, r.getLineNum());
+    }
+}
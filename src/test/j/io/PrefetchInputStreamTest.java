@@ -0,0 +1,222 @@
+package j.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+public class PrefetchInputStreamTest
+{
+    /** Returns a few bytes per read, like a slow peer. */
+    private static InputStream trickle(final byte[] data, final Random rand)
+    {
+        return new ByteArrayInputStream(data)
+        {
+            @Override
+            public synchronized int read(byte[] b, int off, int len)
+            {
+                return super.read(b, off, Math.min(len, 1 + rand.nextInt(700)));
+            }
+        };
+    }
+
+    @Test
+    public void readTest() throws IOException
+    {
+        final Random rand = new Random(49);
+        final byte[] data = new byte[100000];
+        rand.nextBytes(data);
+
+        for (int depth = 2; depth <= 4; depth++)
+        {
+            final PrefetchInputStream in = new PrefetchInputStream(
+                trickle(data, new Random(depth)), 1000, depth);
+            final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            final byte[] buf = new byte[3000];
+
+            while (true)
+            {
+                final int op = rand.nextInt(10);
+                if (op == 0)
+                {
+                    final int b = in.read();
+                    if (b < 0) break;
+                    bout.write(b);
+                }
+                else if (op == 1)
+                {
+                    // skipped bytes are taken from data
+                    final int n = (int) in.skip(rand.nextInt(2000));
+                    bout.write(data, bout.size(), n);
+                }
+                else
+                {
+                    final int n = in.read(buf, 0, 1 + rand.nextInt(3000));
+                    if (n < 0) break;
+                    bout.write(buf, 0, n);
+                }
+            }
+
+            assertArrayEquals(data, bout.toByteArray());
+            assertEquals(-1, in.read());
+            in.close();
+        }
+    }
+
+    @Test
+    public void errorTest() throws IOException
+    {
+        final InputStream broken = new InputStream()
+        {
+            private int count = 0;
+
+            @Override
+            public int read() throws IOException
+            {
+                if (this.count++ >= 10) throw new IOException("broken");
+                return 'a';
+            }
+        };
+
+        final PrefetchInputStream in = new PrefetchInputStream(broken, 4, 2);
+        final byte[] buf = new byte[100];
+        int total = 0;
+        try
+        {
+            while (true) total += in.read(buf, 0, buf.length);
+        }
+        catch (IOException e)
+        {
+            assertEquals("broken", e.getMessage());
+        }
+
+        // InputStream.read(byte[]) stops at the error after reading 10
+        // bytes, which is reported by the next read
+        assertEquals(10, total);
+
+        try
+        {
+            in.read();
+            throw new AssertionError("error not thrown again");
+        }
+        catch (IOException e)
+        {
+            assertEquals("broken", e.getMessage());
+        }
+    }
+
+    @Test
+    public void poolTest() throws Exception
+    {
+        final BufferPool pool = BufferPool.getDefault();
+        for (int i = 0; i < 3; i++) readAndClose();
+        final long allocations = pool.getAllocations();
+
+        // the background thread puts the blocks back last, but not to
+        // the cache of its own thread, which is about to exit
+        for (int i = 0; i < 20; i++) readAndClose();
+        assertEquals(allocations, pool.getAllocations());
+    }
+
+    private static void readAndClose() throws Exception
+    {
+        final Thread[] thread = new Thread[1];
+        final PrefetchInputStream in = new PrefetchInputStream(
+            new ByteArrayInputStream(new byte[1 << 20]), 64 * 1024, 3,
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    thread[0] = new Thread(r);
+                    return thread[0];
+                }
+            });
+
+        assertEquals(0, in.read());
+        in.close();
+        thread[0].join(5000);
+    }
+
+    @Test
+    public void interruptTest() throws Exception
+    {
+        final Semaphore never = new Semaphore(0);
+        final InputStream stuck = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                never.acquireUninterruptibly();
+                return 0;
+            }
+        };
+
+        final PrefetchInputStream in = new PrefetchInputStream(stuck, 64, 2);
+        Thread.currentThread().interrupt();
+        try
+        {
+            in.read();
+            throw new AssertionError("read not interrupted");
+        }
+        catch (InterruptedIOException e)
+        {
+            // the interrupt status is kept
+            assertTrue(Thread.interrupted());
+        }
+        finally
+        {
+            never.release(10);
+            in.close();
+        }
+    }
+
+    @Test
+    public void closeTest() throws Exception
+    {
+        final Thread[] thread = new Thread[1];
+        final ThreadFactory factory = new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                thread[0] = new Thread(r);
+                return thread[0];
+            }
+        };
+
+        // an endless stream fills up the ring at once
+        final InputStream zeros = new InputStream()
+        {
+            @Override
+            public int read()
+            {
+                return 0;
+            }
+        };
+
+        final PrefetchInputStream in =
+            new PrefetchInputStream(zeros, 64, 3, factory);
+        assertEquals(0, in.read());
+        in.close();
+
+        thread[0].join(5000);
+        assertTrue(!thread[0].isAlive());
+
+        try
+        {
+            in.read();
+            throw new AssertionError("read after close");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+}
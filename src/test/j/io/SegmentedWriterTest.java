@@ -0,0 +1,138 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+public class SegmentedWriterTest
+{
+    private static String randomText(Random rand, int len)
+    {
+        final String[] chars =
+            {"a", "b", "c", "\n", "\u00e9", "\u4e2d", "\ud83d\ude00"};
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < len)
+            sb.append(chars[rand.nextInt(chars.length)]);
+        return sb.toString();
+    }
+
+    @Test
+    public void writeTest() throws IOException
+    {
+        final Random rand = new Random(46);
+        for (int t = 0; t < 200; t++)
+        {
+            final SegmentedWriter w = new SegmentedWriter(1 + rand.nextInt(9));
+            final StringBuilder expected = new StringBuilder();
+            final int ops = rand.nextInt(20);
+            for (int i = 0; i < ops; i++)
+            {
+                final String s = randomText(rand, rand.nextInt(30));
+                switch (rand.nextInt(4))
+                {
+                case 0:
+                    w.write(s);
+                    break;
+                case 1:
+                    w.write(s.toCharArray(), 0, s.length());
+                    break;
+                case 2:
+                    w.append(new StringBuilder(s));
+                    break;
+                default:
+                    for (int k = 0; k < s.length(); k++) w.write(s.charAt(k));
+                }
+                expected.append(s);
+            }
+
+            final String exp = expected.toString();
+            assertEquals(exp, w.toString());
+            assertEquals(exp.length(), w.length());
+            assertEquals(exp.length(), w.size());
+            for (int k = 0; k < exp.length(); k++)
+                assertEquals(exp.charAt(k), w.charAt(k));
+
+            final StringWriter sw = new StringWriter();
+            w.writeTo(sw);
+            assertEquals(exp, sw.toString());
+
+            final Charset utf8 = Charset.forName("UTF-8");
+            final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            w.writeTo(bout, utf8);
+            assertEquals(exp, new String(bout.toByteArray(), utf8));
+
+            final Reader r = w.getReader();
+            final char[] buf = new char[1 + rand.nextInt(7)];
+            final StringBuilder read = new StringBuilder();
+            int n;
+            while ((n = r.read(buf, 0, buf.length)) >= 0)
+                read.append(buf, 0, n);
+            assertEquals(exp, read.toString());
+
+            if (exp.length() > 0)
+            {
+                final int s = rand.nextInt(exp.length());
+                final int e = s + rand.nextInt(exp.length() - s + 1);
+                assertEquals(exp.substring(s, e),
+                    w.subSequence(s, e).toString());
+            }
+        }
+    }
+
+    @Test
+    public void appendTest()
+    {
+        final SegmentedWriter w = new SegmentedWriter(4);
+        w.append("hello").append(' ').append("my world", 3, 8)
+            .append((CharSequence) null);
+        assertEquals("hello worldnull", w.toString());
+
+        final CharSequence sub = w.subSequence(2, 10);
+        assertEquals("llo worl", sub.toString());
+        assertEquals("o w", sub.subSequence(2, 5).toString());
+
+        w.clear();
+        assertEquals(0, w.length());
+        assertEquals("", w.toString());
+    }
+
+    @Test
+    public void readerSnapshotTest() throws IOException
+    {
+        final SegmentedWriter w = new SegmentedWriter(2);
+        w.write("abc");
+        final Reader r = w.getReader();
+        w.write("def");
+
+        assertEquals(1, r.skip(1));
+        final char[] buf = new char[10];
+        assertEquals(1, r.read(buf, 0, 10));
+        assertEquals('b', buf[0]);
+        assertEquals(1, r.read(buf, 0, 10));
+        assertEquals('c', buf[0]);
+        assertEquals(-1, r.read(buf, 0, 10));
+    }
+
+    @Test
+    public void splitSurrogateTest() throws IOException
+    {
+        // the surrogate pair straddles two segments
+        final SegmentedWriter w = new SegmentedWriter(2);
+        w.write("a\ud83d\ude00b\ud83d");
+
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        w.writeTo(bout, Charset.forName("UTF-8"));
+        assertEquals("a\ud83d\ude00b?",
+            new String(bout.toByteArray(), "UTF-8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroSizeTest()
+    {
+        new SegmentedWriter(0);
+    }
+}
@@ -0,0 +1,117 @@
+package j.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+
+public class StreamMeterTest
+{
+    private static long sum(long[] h)
+    {
+        long s = 0;
+        for (long c : h) s += c;
+        return s;
+    }
+
+    @Test
+    public void bucketTest()
+    {
+        assertEquals(0, StreamMeter.bucket(0));
+        assertEquals(1, StreamMeter.bucket(1));
+        assertEquals(2, StreamMeter.bucket(2));
+        assertEquals(2, StreamMeter.bucket(3));
+        assertEquals(11, StreamMeter.bucket(1024));
+        assertEquals(63, StreamMeter.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void inputTest() throws IOException
+    {
+        final StreamMeter meter = new StreamMeter(true);
+        final MeteredInputStream in = new MeteredInputStream(
+            new ByteArrayInputStream(new byte[10]), meter);
+
+        assertEquals(0, in.read());
+        final byte[] b = new byte[4];
+        assertEquals(4, in.read(b, 0, 4));
+        assertEquals(2, in.skip(2));
+        assertEquals(3, in.read(b, 0, 4));
+        assertEquals(-1, in.read(b, 0, 4));
+        assertEquals(-1, in.read());
+
+        final StreamMetrics m = meter.snapshot();
+        assertEquals(6, m.getCalls());
+        assertEquals(10, m.getBytes());
+        assertTrue(m.getNanos() >= 0);
+
+        final long[] sizes = m.getSizeHistogram();
+        assertEquals(StreamMetrics.BUCKETS, sizes.length);
+        assertEquals(2, sizes[0]);
+        assertEquals(1, sizes[1]);
+        assertEquals(2, sizes[2]);
+        assertEquals(1, sizes[3]);
+        assertEquals(6, sum(m.getLatencyHistogram()));
+
+        // the snapshot does not change
+        in.read();
+        assertEquals(6, m.getCalls());
+        assertEquals(7, meter.getCalls());
+
+        meter.reset();
+        assertEquals(0, meter.getCalls());
+        assertEquals(0, meter.getBytes());
+        assertEquals(0, sum(meter.getSizeHistogram()));
+    }
+
+    @Test
+    public void failedCallTest()
+    {
+        final StreamMeter meter = new StreamMeter();
+        final MeteredInputStream in = new MeteredInputStream(
+            new InputStream()
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    throw new IOException("broken");
+                }
+            }, meter);
+
+        try
+        {
+            in.read();
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        assertEquals(1, meter.getCalls());
+        assertEquals(0, meter.getBytes());
+        assertNull(meter.getLatencyHistogram());
+    }
+
+    @Test
+    public void chunkSizeTest() throws IOException
+    {
+        final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        final MeteredOutputStream mout = new MeteredOutputStream(bout);
+        final ChunkedOutputStream out = new ChunkedOutputStream(mout, 16);
+
+        out.write(new byte[40]);
+        out.flush();
+        out.write(new byte[3]);
+        out.close();
+
+        final StreamMeter writes = mout.getWriteMeter();
+        assertEquals(bout.size(), writes.getBytes());
+        assertEquals(writes.getCalls(), sum(writes.getSizeHistogram()));
+        assertTrue(writes.getCalls() >= 4);
+        assertTrue(mout.getFlushMeter().getCalls() >= 1);
+        assertEquals(0, mout.getFlushMeter().getBytes());
+    }
+}
@@ -0,0 +1,224 @@
+package j.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class WriteBehindOutputStreamTest
+{
+    /** Counts the writes and flushes. */
+    private static class CountingStream extends ByteArrayOutputStream
+    {
+        volatile int writes = 0;
+        volatile int flushes = 0;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len)
+        {
+            this.writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush()
+        {
+            this.flushes++;
+        }
+    }
+
+    @Test
+    public void coalesceTest() throws IOException
+    {
+        final CountingStream sink = new CountingStream();
+        final WriteBehindOutputStream out =
+            new WriteBehindOutputStream(sink, 1024, 3);
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 5000; i++)
+        {
+            final byte[] rec = ("record " + i + "\n").getBytes("US-ASCII");
+            out.write(rec);
+            expected.write(rec);
+            if (i % 7 == 0) out.write('x');
+            if (i % 7 == 0) expected.write('x');
+        }
+
+        out.flush();
+        assertArrayEquals(expected.toByteArray(), sink.toByteArray());
+        assertTrue(sink.writes <= expected.size() / 1024 + 1);
+        assertTrue(sink.flushes >= 1);
+
+        out.write(new byte[5000]);
+        out.close();
+        out.close();
+        assertEquals(expected.size() + 5000, sink.size());
+    }
+
+    @Test
+    public void poolTest() throws IOException
+    {
+        final BufferPool pool = BufferPool.getDefault();
+        for (int i = 0; i < 3; i++) writeAndClose();
+        final long allocations = pool.getAllocations();
+
+        // the blocks are reused, not left in the caches of dead threads
+        for (int i = 0; i < 20; i++) writeAndClose();
+        assertEquals(allocations, pool.getAllocations());
+    }
+
+    private static void writeAndClose() throws IOException
+    {
+        final WriteBehindOutputStream out = new WriteBehindOutputStream(
+            new NullOutputStream(), 64 * 1024, 4);
+        out.write(new byte[100000]);
+        out.close();
+    }
+
+    @Test
+    public void threadsTest() throws Exception
+    {
+        final CountingStream sink = new CountingStream();
+        final WriteBehindOutputStream out =
+            new WriteBehindOutputStream(sink, 256, 2);
+
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final byte id = (byte) ('a' + t);
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < 1000; i++)
+                            out.write(new byte[] {id, id, id});
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for (Thread t : threads) t.join();
+        out.close();
+
+        // every write is kept whole
+        final byte[] data = sink.toByteArray();
+        assertEquals(threads.length * 3000, data.length);
+        for (int i = 0; i < data.length; i += 3)
+        {
+            assertEquals(data[i], data[i + 1]);
+            assertEquals(data[i], data[i + 2]);
+        }
+    }
+
+    @Test
+    public void backpressureTest() throws Exception
+    {
+        final Semaphore permits = new Semaphore(0);
+        final OutputStream slow = new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+                permits.acquireUninterruptibly();
+            }
+        };
+
+        final WriteBehindOutputStream out =
+            new WriteBehindOutputStream(slow, 64, 2);
+
+        // one block is being written and one is full, so the writer
+        // waits for a free block
+        final CompletableFuture<Void> wrote =
+            CompletableFuture.runAsync(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        out.write(new byte[64 * 3]);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+
+        Thread.sleep(200);
+        assertTrue(!wrote.isDone());
+
+        permits.release(10);
+        wrote.get(5, TimeUnit.SECONDS);
+        out.close();
+    }
+
+    @Test
+    public void errorTest() throws Exception
+    {
+        final OutputStream broken = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                throw new IOException("broken");
+            }
+        };
+
+        final WriteBehindOutputStream out =
+            new WriteBehindOutputStream(broken, 64, 2);
+        out.write(1);
+
+        try
+        {
+            out.flush();
+            throw new AssertionError("flush did not fail");
+        }
+        catch (IOException e)
+        {
+            assertEquals("broken", e.getMessage());
+        }
+
+        try
+        {
+            out.write(2);
+            throw new AssertionError("write did not fail");
+        }
+        catch (IOException e)
+        {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+
+        try
+        {
+            out.close();
+            throw new AssertionError("close did not fail");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        assertTrue(out.flushAsync().isCompletedExceptionally());
+    }
+}